@@ -0,0 +1,249 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.bench;
+
+import eu.delving.x3ml.X3MLGeneratorPolicy;
+import eu.delving.x3ml.engine.Generator;
+import eu.delving.x3ml.engine.SourceParser;
+import gr.forth.UtilsTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static eu.delving.x3ml.engine.X3ML.ArgValue;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+
+/**
+ * Microbenchmarks of the generator policy for each kind of generator, and of
+ * date interpretation over the dates found in the British Museum example.
+ * Every benchmark cycles through its inputs, which are plain or in need of
+ * encoding, and dates which are understood or not.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class GeneratorBenchmarks {
+    private static final String POLICY = "" +
+            "<generator_policy>\n" +
+            "    <generator name=\"SimpleLabel\"><pattern>{label}</pattern></generator>\n" +
+            "    <generator name=\"LocalTermURI\" prefix=\"bm\"><pattern>{hierarchy}/{term}</pattern></generator>\n" +
+            "    <generator name=\"BMdates\">\n" +
+            "        <custom generatorClass=\"gr.forth.GermanDate\">\n" +
+            "            <set-arg name=\"bound\" type=\"constant\"/>\n" +
+            "            <set-arg name=\"text\"/>\n" +
+            "        </custom>\n" +
+            "    </generator>\n" +
+            "    <generator name=\"Echo\">\n" +
+            "        <custom generatorClass=\"" + Echo.class.getName() + "\">\n" +
+            "            <set-arg name=\"text\"/>\n" +
+            "        </custom>\n" +
+            "    </generator>\n" +
+            "</generator_policy>";
+
+    /**
+     * A custom generator which is found by reflection, unlike the native ones.
+     */
+    public static class Echo implements X3MLGeneratorPolicy.CustomGenerator {
+        private String text;
+
+        @Override
+        public void setArg(String name, String value) {
+            text = value;
+        }
+
+        @Override
+        public String getValue() {
+            return text;
+        }
+
+        @Override
+        public String getValueType() {
+            return "Literal";
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Values {
+        final List<Generator.ArgValues> uri = new ArrayList<Generator.ArgValues>();
+        final List<Generator.ArgValues> label = new ArrayList<Generator.ArgValues>();
+        final List<Generator.ArgValues> text = new ArrayList<Generator.ArgValues>();
+        final X3MLGeneratorPolicy policy = policy();
+        int index;
+
+        @Param({"plain", "encoded"})
+        public String values;
+
+        @Setup
+        public void setUp() {
+            String[] strings = "plain".equals(values) ?
+                    new String[]{"Coins", "Medals", "Bronze", "12345"} :
+                    new String[]{"Münzen & Medaillen", "a/b c", "Ægean {bronze}", "50% silver"};
+            for (String value : strings) {
+                uri.add(args("hierarchy", "object", "term", value));
+                label.add(args("label", value));
+                text.add(args("text", value));
+            }
+        }
+
+        Generator.ArgValues next(List<Generator.ArgValues> list) {
+            return list.get(index++ % list.size());
+        }
+    }
+
+    /**
+     * For the generators whose speed does not depend on encoding.
+     */
+    @State(Scope.Thread)
+    public static class Unencoded {
+        final List<Generator.ArgValues> dates = new ArrayList<Generator.ArgValues>();
+        final Generator.ArgValues text = args("text", "Coins");
+        final X3MLGeneratorPolicy policy = policy();
+        int index;
+
+        @Setup
+        public void setUp() {
+            for (String date : bmDates()) {
+                if (UtilsTime.validate(date, "Upper") != null) {
+                    dates.add(args("bound", "Upper", "text", date));
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Dates {
+        final List<String> dates = new ArrayList<String>();
+        int index;
+
+        @Param({"Lower", "Upper"})
+        public String bound;
+
+        @Param({"known", "unknown"})
+        public String kind;
+
+        @Setup
+        public void setUp() {
+            for (String date : bmDates()) {
+                if ((UtilsTime.validate(date, "Lower") != null) == "known".equals(kind)) {
+                    dates.add(date);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Object uriTemplate(Values values) {
+        return values.policy.generate("LocalTermURI", values.next(values.uri));
+    }
+
+    @Benchmark
+    public Object simpleTemplate(Values values) {
+        return values.policy.generate("SimpleLabel", values.next(values.label));
+    }
+
+    @Benchmark
+    public Object custom(Values values) {
+        return values.policy.generate("Echo", values.next(values.text));
+    }
+
+    @Benchmark
+    public Object uuid(Unencoded unencoded) {
+        return unencoded.policy.generate("UUID", unencoded.text);
+    }
+
+    /**
+     * The policy names gr.forth.GermanDate, which is routed to the native
+     * DateBound generator, so this is a date lookup in a warm DateCache.
+     * Finding a custom generator by reflection is what custom measures.
+     */
+    @Benchmark
+    public Object nativeDateCached(Unencoded unencoded) {
+        return unencoded.policy.generate("BMdates", unencoded.dates.get(unencoded.index++ % unencoded.dates.size()));
+    }
+
+    @Benchmark
+    public Object validate(Dates dates) {
+        return UtilsTime.validate(dates.dates.get(dates.index++ % dates.dates.size()), dates.bound);
+    }
+
+    private static X3MLGeneratorPolicy policy() {
+        try {
+            X3MLGeneratorPolicy policy = X3MLGeneratorPolicy.load(
+                    new ByteArrayInputStream(POLICY.getBytes("UTF-8")),
+                    X3MLGeneratorPolicy.createUUIDSource(-1)
+            );
+            policy.setNamespace("bm", "http://collection.britishmuseum.org/id/");
+            return policy;
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the text of every date and year element in the BM example, in document order
+     */
+    static List<String> bmDates() {
+        Element root = SourceParser.parse(new ByteArrayInputStream(Fixture.bytes("/bm/BM20.xml")));
+        List<String> dates = new ArrayList<String>();
+        NodeList elements = root.getElementsByTagName("*");
+        for (int walk = 0; walk < elements.getLength(); walk++) {
+            Node element = elements.item(walk);
+            String name = element.getLocalName() == null ? element.getNodeName() : element.getLocalName();
+            if (name.contains("date") || name.contains("year")) {
+                String text = element.getTextContent().trim();
+                if (!text.isEmpty()) {
+                    dates.add(text);
+                }
+            }
+        }
+        return dates;
+    }
+
+    private static Generator.ArgValues args(final String... nameValues) {
+        return new Generator.ArgValues() {
+            @Override
+            public ArgValue getArgValue(String name, SourceType sourceType) {
+                for (int walk = 0; walk < nameValues.length; walk += 2) {
+                    if (nameValues[walk].equals(name)) {
+                        return new ArgValue(nameValues[walk + 1], null);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.bench;
+
+import eu.delving.x3ml.ReloadableMapping;
+import eu.delving.x3ml.X3MLEngine;
+import eu.delving.x3ml.X3MLGeneratorPolicy;
+import eu.delving.x3ml.engine.SourceParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmarks of the bundled fixtures, separately measuring
+ * loading the mapping, parsing the input, executing and serializing.
+ * Allocation per operation comes from running them with -prof gc, as the
+ * benchmark profile does.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MappingBenchmarks {
+    private final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    private Fixture fixture;
+    private ReloadableMapping.Plan plan;
+    private Element source;
+    private X3MLEngine.Output output;
+
+    @Param({"bm", "lido07", "coin", "double_join"})
+    public String name;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixture.named(name);
+        plan = ReloadableMapping.load(fixture.name, fixture.x3ml, fixture.policy).current();
+        source = SourceParser.parse(new ByteArrayInputStream(fixture.input));
+        output = plan.execute(source, X3MLGeneratorPolicy.createUUIDSource(-1));
+    }
+
+    @Benchmark
+    public X3MLEngine load() {
+        return X3MLEngine.load(new ByteArrayInputStream(fixture.x3ml));
+    }
+
+    @Benchmark
+    public Element parse() {
+        return SourceParser.parse(new ByteArrayInputStream(fixture.input));
+    }
+
+    @Benchmark
+    public X3MLEngine.Output execute() {
+        return plan.execute(source, X3MLGeneratorPolicy.createUUIDSource(-1));
+    }
+
+    @Benchmark
+    public int serialize() {
+        serialized.reset();
+        output.write(new PrintStream(serialized), "application/n-triples");
+        return serialized.size();
+    }
+}
@@ -0,0 +1,245 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+import static eu.delving.x3ml.engine.X3ML.GeneratedType;
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+
+/**
+ * Remembers the values of custom generators from one run to the next, so that
+ * the same lookups are not repeated every time the same data is mapped.
+ * <p/>
+ * Entries are appended to a log file, flushed one by one so that a crash
+ * loses nothing already generated, and read back in when the cache is
+ * opened. The least recently used entries are forgotten beyond the capacity,
+ * and the log is rewritten with only the remembered entries when it holds
+ * twice as many records as there are entries, or when its tail turns out to
+ * be damaged. A file which does not start like a cache is refused, rather
+ * than replaced.
+ */
+
+public class GeneratorCache implements Closeable {
+    public static final int DEFAULT_CAPACITY = 100000;
+    private static final String MAGIC = "X3ML-generator-cache-1";
+    private static final int MAX_TEXT = 16384;
+    private final File file;
+    private final Map<String, GeneratedValue> entries;
+    private DataOutputStream log;
+    private int logged;
+
+    public static GeneratorCache open(File file, int capacity) {
+        return new GeneratorCache(file, capacity);
+    }
+
+    private GeneratorCache(File file, final int capacity) {
+        if (capacity < 1) {
+            throw exception("Cache capacity must be positive");
+        }
+        this.file = file;
+        this.entries = new LinkedHashMap<String, GeneratedValue>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, GeneratedValue> eldest) {
+                return size() > capacity;
+            }
+        };
+        boolean intact = !file.exists() || file.length() == 0 || read();
+        if (!intact || logged > compactAt()) {
+            rewrite();
+        }
+        else {
+            log = append(file.exists() && file.length() > 0);
+        }
+    }
+
+    /**
+     * @param generatorName the name of the generator in the policy
+     * @param generatorClass the class behind it, so that changing it does not give stale values
+     * @param arguments the argument names and values in the order they are set
+     * @return the key under which to remember the value
+     */
+    public static String key(String generatorName, String generatorClass, String... arguments) {
+        StringBuilder out = new StringBuilder(generatorClass);
+        for (String argument : arguments) {
+            out.append('\u0000').append(argument);
+        }
+        return generatorName + ':' + NativeGenerators.sha1(out.toString());
+    }
+
+    public synchronized GeneratedValue get(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, GeneratedValue value) {
+        if (value.text.length() > MAX_TEXT || same(value, entries.get(key))) {
+            return;
+        }
+        entries.put(key, value);
+        try {
+            write(log, key, value);
+            log.flush();
+        }
+        catch (IOException e) {
+            throw exception("Unable to write generator cache " + file, e);
+        }
+        if (++logged > compactAt()) {
+            rewrite();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            }
+            catch (IOException e) {
+                throw exception("Unable to close generator cache " + file, e);
+            }
+            log = null;
+        }
+    }
+
+    private int compactAt() {
+        return 2 * Math.max(entries.size(), 1024);
+    }
+
+    private static boolean same(GeneratedValue value, GeneratedValue other) {
+        return other != null && value.type == other.type && value.text.equals(other.text)
+                && (value.language == null ? other.language == null : value.language.equals(other.language));
+    }
+
+    /**
+     * @return false if the file is ours but damaged, so it should be rewritten
+     * @throws X3MLEngine.X3MLException if the file is not a generator cache
+     */
+    private boolean read() {
+        DataInputStream in = null;
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(file));
+            in = new DataInputStream(buffered);
+            byte[] header = header();
+            byte[] start = new byte[header.length];
+            int length = 0;
+            for (int count; length < start.length && (count = in.read(start, length, start.length - length)) > 0; ) {
+                length += count;
+            }
+            for (int walk = 0; walk < length; walk++) {
+                if (start[walk] != header[walk]) {
+                    throw exception("Not a generator cache, refusing to replace " + file);
+                }
+            }
+            if (length < header.length) {
+                return false; // cut off in the header
+            }
+            while (true) {
+                buffered.mark(1);
+                if (buffered.read() < 0) {
+                    return true;
+                }
+                buffered.reset();
+                String key = in.readUTF();
+                GeneratedType type = GeneratedType.valueOf(in.readUTF());
+                String text = in.readUTF();
+                String language = in.readUTF();
+                entries.put(key, new GeneratedValue(type, text, language.isEmpty() ? null : language));
+                logged++;
+            }
+        }
+        catch (IOException e) {
+            return false; // partly written, so keep what was read and rewrite
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    // nothing to lose
+                }
+            }
+        }
+    }
+
+    private void rewrite() {
+        close();
+        File fresh = new File(file.getPath() + ".new");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fresh)));
+            out.writeUTF(MAGIC);
+            for (Map.Entry<String, GeneratedValue> entry : entries.entrySet()) {
+                write(out, entry.getKey(), entry.getValue());
+            }
+            out.close();
+        }
+        catch (IOException e) {
+            throw exception("Unable to write generator cache " + fresh, e);
+        }
+        if ((file.exists() && !file.delete()) || !fresh.renameTo(file)) {
+            throw exception("Unable to replace generator cache " + file);
+        }
+        logged = entries.size();
+        log = append(true);
+    }
+
+    private DataOutputStream append(boolean started) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (!started) {
+                out.writeUTF(MAGIC);
+            }
+            return out;
+        }
+        catch (IOException e) {
+            throw exception("Unable to open generator cache " + file, e);
+        }
+    }
+
+    private static byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(MAGIC);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void write(DataOutputStream out, String key, GeneratedValue value) throws IOException {
+        out.writeUTF(key);
+        out.writeUTF(value.type.name());
+        out.writeUTF(value.text);
+        out.writeUTF(value.language == null ? "" : value.language);
+    }
+}
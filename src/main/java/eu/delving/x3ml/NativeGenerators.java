@@ -0,0 +1,325 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.Diagnostics;
+import gr.forth.DateCache;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+import static eu.delving.x3ml.engine.X3ML.ArgValue;
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+import static eu.delving.x3ml.engine.X3ML.Helper.literalValue;
+import static eu.delving.x3ml.engine.X3ML.Helper.typedLiteralValue;
+import static eu.delving.x3ml.engine.X3ML.Helper.uriValue;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static eu.delving.x3ml.engine.X3ML.SourceType.constant;
+import static eu.delving.x3ml.engine.X3ML.SourceType.xpath;
+
+/**
+ * Generators which are built into the engine, so that common mappings never
+ * need a reflective custom generator. They are called by name from the X3ML,
+ * and the custom generator classes which they replace are recognized in the
+ * generator policy and routed here as well.
+ * <p/>
+ * UUID, Literal and Constant always take precedence, the others only when
+ * the generator policy does not define a generator of the same name.
+ */
+
+public class NativeGenerators {
+
+    public interface NativeGenerator {
+
+        GeneratedValue generate(Arguments arguments);
+    }
+
+    /**
+     * What a native generator can ask of its caller.
+     */
+    public interface Arguments {
+
+        /**
+         * @param name the argument name
+         * @param sourceType the type to use when the caller leaves it open
+         * @return the value or null if absent
+         */
+        ArgValue get(String name, SourceType sourceType);
+
+        String language(String language);
+
+        String namespaceUri(String prefix);
+
+        String generateUUID();
+    }
+
+    private static final Map<String, NativeGenerator> BY_NAME = new HashMap<String, NativeGenerator>();
+    private static final Map<String, NativeGenerator> BY_CLASS = new HashMap<String, NativeGenerator>();
+    private static final Set<String> RESERVED = new HashSet<String>();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static final NativeGenerator UUID = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            return uriValue(arguments.generateUUID());
+        }
+    };
+
+    public static final NativeGenerator LITERAL = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            ArgValue value = arguments.get("text", xpath);
+            if (value == null) {
+                throw exception("Argument failure: need one argument");
+            }
+            if (value.string == null || value.string.isEmpty()) {
+                throw exception("Argument failure: empty argument");
+            }
+            return literalValue(value.string, arguments.language(value.language));
+        }
+    };
+
+    public static final NativeGenerator CONSTANT = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            ArgValue value = arguments.get("text", constant);
+            if (value == null) {
+                throw exception("Argument failure: need one argument");
+            }
+            return literalValue(value.string, arguments.language(value.language));
+        }
+    };
+
+    public static final NativeGenerator URI_OR_UUID = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            String text = text(arguments);
+            return isURI(text) ? uriValue(text) : uriValue(arguments.generateUUID());
+        }
+    };
+
+    public static final NativeGenerator HASH_URI = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            ArgValue prefix = arguments.get("prefix", constant);
+            if (prefix == null || prefix.string == null) {
+                throw exception("Argument failure: HashURI needs a prefix");
+            }
+            String namespaceUri = arguments.namespaceUri(prefix.string);
+            if (namespaceUri == null) {
+                throw exception("No namespace for prefix " + prefix.string + " in HashURI");
+            }
+            return uriValue(namespaceUri + sha1(text(arguments)));
+        }
+    };
+
+    public static final NativeGenerator NORMALIZED = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            ArgValue value = required(arguments);
+            return literalValue(collapseWhitespace(value.string), arguments.language(value.language));
+        }
+    };
+
+    public static final NativeGenerator LOWER_CASE = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            ArgValue value = required(arguments);
+            return literalValue(collapseWhitespace(value.string).toLowerCase(Locale.ENGLISH), arguments.language(value.language));
+        }
+    };
+
+    public static final NativeGenerator UPPER_CASE = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            ArgValue value = required(arguments);
+            return literalValue(collapseWhitespace(value.string).toUpperCase(Locale.ENGLISH), arguments.language(value.language));
+        }
+    };
+
+    public static final NativeGenerator DATE_BOUND = new NativeGenerator() {
+        @Override
+        public GeneratedValue generate(Arguments arguments) {
+            String text = text(arguments);
+            ArgValue bound = arguments.get("bound", constant);
+            if (bound == null || !("Lower".equals(bound.string) || "Upper".equals(bound.string))) {
+                throw exception("Argument failure: bound must be Lower or Upper");
+            }
+            String xsdDate = DateCache.shared().get(text, bound.string);
+            return text.startsWith("http") ? uriValue(xsdDate) : typedLiteralValue(xsdDate);
+        }
+    };
+
+    static {
+        reserve("UUID", UUID);
+        reserve("Literal", LITERAL);
+        reserve("Constant", CONSTANT);
+        BY_NAME.put("URIorUUID", URI_OR_UUID);
+        BY_NAME.put("HashURI", HASH_URI);
+        BY_NAME.put("Normalized", NORMALIZED);
+        BY_NAME.put("LowerCase", LOWER_CASE);
+        BY_NAME.put("UpperCase", UPPER_CASE);
+        BY_NAME.put("DateBound", DATE_BOUND);
+        BY_CLASS.put("gr.forth.URIorUUID", URI_OR_UUID);
+        BY_CLASS.put("gr.forth.BMdates", DATE_BOUND);
+        BY_CLASS.put("gr.forth.GermanDate", DATE_BOUND);
+        DateCache.setListener(new DateCache.Listener() {
+            @Override
+            public void unknown(String text) {
+                Diagnostics.note(Diagnostics.Event.UNKNOWN_DATE, text);
+            }
+
+            @Override
+            public void interpreted(String text, String xsdDate) {
+                Diagnostics.count(Diagnostics.Event.DATE);
+                if (DateCache.isLogging()) {
+                    Diagnostics.trace("dates", text, xsdDate);
+                }
+            }
+        });
+    }
+
+    private static void reserve(String name, NativeGenerator generator) {
+        BY_NAME.put(name, generator);
+        RESERVED.add(name);
+    }
+
+    /**
+     * @param name the generator name used in the X3ML
+     * @return the native generator or null
+     */
+    public static NativeGenerator byName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    /**
+     * @param name the generator name used in the X3ML
+     * @return true if the generator policy is not allowed to redefine it
+     */
+    public static boolean isReserved(String name) {
+        return RESERVED.contains(name);
+    }
+
+    /**
+     * @param generatorClass a custom generator class named in a generator policy
+     * @return the native equivalent or null
+     */
+    public static NativeGenerator byClass(String generatorClass) {
+        return BY_CLASS.get(generatorClass);
+    }
+
+    public static Set<String> names() {
+        return Collections.unmodifiableSet(BY_NAME.keySet());
+    }
+
+    // ==== helpers
+
+    private static ArgValue required(Arguments arguments) {
+        ArgValue value = arguments.get("text", xpath);
+        if (value == null || value.string == null) {
+            throw exception("Argument failure: need a text argument");
+        }
+        return value;
+    }
+
+    private static String text(Arguments arguments) {
+        return required(arguments).string;
+    }
+
+    static boolean isURI(String text) {
+        if (text.startsWith("urn:") || text.startsWith("URN:")) {
+            return true;
+        }
+        if (text.indexOf(':') < 0) {
+            return false; // no scheme, so no URL either
+        }
+        try {
+            new URL(text).toURI();
+            return true;
+        }
+        catch (MalformedURLException e) {
+            return false;
+        }
+        catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    static String collapseWhitespace(String text) {
+        StringBuilder out = null;
+        int length = text.length();
+        boolean space = false;
+        int written = 0;
+        for (int walk = 0; walk < length; walk++) {
+            char c = text.charAt(walk);
+            if (Character.isWhitespace(c)) {
+                space = written > 0;
+                if (out == null) {
+                    out = new StringBuilder(length).append(text, 0, walk);
+                }
+            }
+            else {
+                if (space) {
+                    if (out == null) {
+                        out = new StringBuilder(length).append(text, 0, walk);
+                    }
+                    out.append(' ');
+                    space = false;
+                }
+                if (out != null) {
+                    out.append(c);
+                }
+                written++;
+            }
+        }
+        return out == null ? text : out.toString();
+    }
+
+    static String sha1(String text) {
+        try {
+            return sha1(text.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e) {
+            throw exception("UTF-8 not available", e);
+        }
+    }
+
+    static String sha1(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            char[] hex = new char[digest.length * 2];
+            for (int walk = 0; walk < digest.length; walk++) {
+                hex[walk * 2] = HEX[(digest[walk] >> 4) & 0xF];
+                hex[walk * 2 + 1] = HEX[digest[walk] & 0xF];
+            }
+            return new String(hex);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw exception("SHA-1 not available", e);
+        }
+    }
+}
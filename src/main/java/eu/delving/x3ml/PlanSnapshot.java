@@ -0,0 +1,281 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.XStreamException;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+import eu.delving.x3ml.engine.X3ML;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+import static eu.delving.x3ml.engine.X3ML.GeneratorPolicy;
+import static eu.delving.x3ml.engine.X3ML.Helper.generatorStream;
+import static eu.delving.x3ml.engine.X3ML.Helper.x3mlStream;
+import static eu.delving.x3ml.engine.X3ML.RootElement;
+
+/**
+ * Keeps mappings and generator policies in a directory in XStream's binary
+ * form, named by the SHA-1 of the XML they came from, so that loading the
+ * same file again needs no XML parsing. Validation of a mapping is also
+ * remembered, as an empty marker file.
+ * <p/>
+ * The names also carry a fingerprint of the mapping classes and the schema,
+ * so an engine whose model or schema differs does not find the snapshots
+ * of another, and parses the XML itself.
+ * <p/>
+ * A snapshot is written to a temporary file and then renamed, so processes
+ * sharing the directory never see half of one. When a snapshot cannot be
+ * read, for example after the classes have changed, the XML is parsed again
+ * and the snapshot replaced.
+ */
+
+public class PlanSnapshot {
+    private static final Logger LOG = Logger.getLogger(PlanSnapshot.class);
+    public static final String MODEL = modelFingerprint();
+    private static final String MAGIC = "X3ML-plan-snapshot-2 " + MODEL;
+    private final File directory;
+
+    public PlanSnapshot(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw exception("Unable to create snapshot directory " + directory);
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * @param x3mlFile the mapping
+     * @return the validation errors, empty when valid now or before
+     */
+    public List<String> validate(File x3mlFile) {
+        byte[] x3ml = read(x3mlFile);
+        File marker = new File(directory, NativeGenerators.sha1(x3ml) + "-" + MODEL + ".valid");
+        if (marker.exists()) {
+            return Collections.emptyList();
+        }
+        List<String> errors = X3MLEngine.validate(new ByteArrayInputStream(x3ml));
+        if (errors.isEmpty()) {
+            try {
+                if (!marker.createNewFile() && !marker.exists()) {
+                    LOG.warn("Unable to create " + marker);
+                }
+            }
+            catch (IOException e) {
+                LOG.warn("Unable to create " + marker, e);
+            }
+        }
+        return errors;
+    }
+
+    public X3MLEngine loadEngine(File x3mlFile) {
+        return X3MLEngine.create((RootElement) load(x3mlStream(), x3mlFile, ".x3ml.snapshot"));
+    }
+
+    public X3MLGeneratorPolicy loadPolicy(File policyFile, X3MLGeneratorPolicy.UUIDSource uuidSource) {
+        return X3MLGeneratorPolicy.create((GeneratorPolicy) load(generatorStream(), policyFile, ".policy.snapshot"), uuidSource);
+    }
+
+    private Object load(XStream stream, File xmlFile, String suffix) {
+        byte[] xml = read(xmlFile);
+        File snapshot = new File(directory, NativeGenerators.sha1(xml) + "-" + MODEL + suffix);
+        if (snapshot.exists()) {
+            try {
+                return readSnapshot(stream, snapshot);
+            }
+            catch (IOException e) {
+                LOG.warn("Replacing unreadable snapshot " + snapshot, e);
+            }
+            catch (XStreamException e) {
+                LOG.warn("Replacing unreadable snapshot " + snapshot, e);
+            }
+        }
+        Object parsed = stream.fromXML(new ByteArrayInputStream(xml));
+        writeSnapshot(stream, parsed, snapshot);
+        return parsed;
+    }
+
+    private static Object readSnapshot(XStream stream, File snapshot) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            DataInputStream in = new DataInputStream(new BufferInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+            if (!MAGIC.equals(in.readUTF())) {
+                throw new IOException("Not a snapshot");
+            }
+            return stream.unmarshal(new BinaryStreamReader(in));
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    private void writeSnapshot(XStream stream, Object parsed, File snapshot) {
+        File fresh = null;
+        try {
+            fresh = File.createTempFile("snapshot", ".new", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fresh)));
+            try {
+                out.writeUTF(MAGIC);
+                BinaryStreamWriter writer = new BinaryStreamWriter(out);
+                stream.marshal(parsed, writer);
+                writer.flush();
+            }
+            finally {
+                out.close();
+            }
+            if (!fresh.renameTo(snapshot) && !(snapshot.delete() && fresh.renameTo(snapshot))) {
+                LOG.warn("Unable to replace snapshot " + snapshot);
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Unable to write snapshot " + snapshot, e); // only slower next time
+        }
+        finally {
+            if (fresh != null && fresh.exists() && !fresh.delete()) {
+                fresh.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @return a digest of the fields and annotations of the mapping and policy classes, and of the schema
+     */
+    private static String modelFingerprint() {
+        List<Class<?>> classes = new ArrayList<Class<?>>(Arrays.asList(X3ML.class.getDeclaredClasses()));
+        Collections.sort(classes, new Comparator<Class<?>>() {
+            @Override
+            public int compare(Class<?> a, Class<?> b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        StringBuilder out = new StringBuilder();
+        for (Class<?> modelClass : classes) {
+            out.append(modelClass.getName()).append(annotations(modelClass.getAnnotations())).append('\n');
+            List<String> fields = new ArrayList<String>();
+            for (Field field : modelClass.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.add(field.getName() + ":" + field.getGenericType() + annotations(field.getAnnotations()));
+                }
+            }
+            Collections.sort(fields); // reflection promises no order
+            for (String field : fields) {
+                out.append(' ').append(field).append('\n');
+            }
+        }
+        try {
+            for (String schema : new String[]{"x3ml_v1.0.xsd", "info.xsd", "comment.xsd"}) {
+                InputStream in = X3MLEngine.inputStream(schema);
+                try {
+                    out.append(NativeGenerators.sha1(IOUtils.toByteArray(in))).append('\n');
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            throw exception("Unable to read the schema", e);
+        }
+        return NativeGenerators.sha1(out.toString()).substring(0, 12);
+    }
+
+    private static String annotations(Annotation[] annotations) {
+        List<String> list = new ArrayList<String>();
+        for (Annotation annotation : annotations) {
+            List<String> members = new ArrayList<String>(); // sorted, since toString lists them in hash order
+            for (Method member : annotation.annotationType().getDeclaredMethods()) {
+                try {
+                    members.add(member.getName() + "=" + Arrays.deepToString(new Object[]{member.invoke(annotation)}));
+                }
+                catch (IllegalAccessException e) {
+                    throw exception("Unable to read " + annotation, e);
+                }
+                catch (InvocationTargetException e) {
+                    throw exception("Unable to read " + annotation, e);
+                }
+            }
+            Collections.sort(members);
+            list.add(annotation.annotationType().getName() + members);
+        }
+        Collections.sort(list);
+        return list.toString();
+    }
+
+    private static byte[] read(File file) {
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] bytes = new byte[(int) file.length()];
+                new DataInputStream(in).readFully(bytes);
+                return bytes;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw exception("Unable to read " + file, e);
+        }
+    }
+
+    private static class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+import static eu.delving.x3ml.engine.X3ML.GeneratorPolicy;
+import static eu.delving.x3ml.engine.X3ML.Helper.generatorStream;
+
+/**
+ * A mapping and its generator policy which can be replaced while records are
+ * being mapped. Every execution takes the current plan when it starts and
+ * finishes with it, while reloads are loaded on a background thread and then
+ * swapped in, so nobody waits for them.
+ * <p/>
+ * A reload that fails leaves the current plan in place.
+ */
+
+public class ReloadableMapping {
+    private static final Logger LOG = Logger.getLogger(ReloadableMapping.class);
+    private final String name;
+    private volatile Plan current;
+    private ScheduledFuture<?> watch;
+
+    public static class Plan {
+        public final int version;
+        public final String mappingHash;
+        public final String policyHash;
+        public final X3MLEngine engine;
+        final GeneratorPolicy policy;
+
+        private Plan(int version, String mappingHash, String policyHash, X3MLEngine engine, GeneratorPolicy policy) {
+            this.version = version;
+            this.mappingHash = mappingHash;
+            this.policyHash = policyHash;
+            this.engine = engine;
+            this.policy = policy;
+        }
+
+        /**
+         * @param uuidSource where the UUIDs come from
+         * @return a fresh generator policy for one execution
+         */
+        public X3MLGeneratorPolicy createPolicy(X3MLGeneratorPolicy.UUIDSource uuidSource) {
+            return X3MLGeneratorPolicy.create(policy, uuidSource);
+        }
+
+        public X3MLEngine.Output execute(Element sourceRoot, X3MLGeneratorPolicy.UUIDSource uuidSource) {
+            return engine.execute(sourceRoot, createPolicy(uuidSource));
+        }
+
+        public String toString() {
+            return "version " + version + " mapping " + mappingHash + (policyHash == null ? "" : " policy " + policyHash);
+        }
+    }
+
+    /**
+     * Load the first plan, in the calling thread.
+     *
+     * @param name for the log
+     * @param x3ml the mapping
+     * @param policy the generator policy, or null
+     * @return the mapping, ready to execute
+     */
+    public static ReloadableMapping load(String name, byte[] x3ml, byte[] policy) {
+        ReloadableMapping mapping = new ReloadableMapping(name);
+        mapping.current = mapping.compile(x3ml, policy);
+        return mapping;
+    }
+
+    private ReloadableMapping(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the plan which new executions should use
+     */
+    public Plan current() {
+        return current;
+    }
+
+    /**
+     * Load a new plan in the background and swap it in when it is ready.
+     *
+     * @param x3ml the new mapping, or null to keep the current one
+     * @param policy the new generator policy, or null to keep the current one
+     * @return the plan which is current after the reload
+     */
+    public Future<Plan> reload(final byte[] x3ml, final byte[] policy) {
+        return Reloader.EXECUTOR.submit(new Callable<Plan>() {
+            @Override
+            public Plan call() throws Exception {
+                Plan plan = compile(x3ml, policy);
+                if (plan != current) {
+                    current = plan;
+                    LOG.info(name + ": now " + plan);
+                }
+                return plan;
+            }
+        });
+    }
+
+    /**
+     * Reload whenever one of the files changes.
+     *
+     * @param x3mlFile the mapping
+     * @param policyFile the generator policy, or null
+     * @param intervalMillis how often to look
+     */
+    public synchronized void watch(final File x3mlFile, final File policyFile, long intervalMillis) {
+        stopWatching();
+        watch = Reloader.EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+            private long x3mlModified = x3mlFile.lastModified();
+            private long policyModified = policyFile == null ? 0 : policyFile.lastModified();
+
+            @Override
+            public void run() {
+                long x3mlNow = x3mlFile.lastModified();
+                long policyNow = policyFile == null ? 0 : policyFile.lastModified();
+                if (x3mlNow == x3mlModified && policyNow == policyModified) {
+                    return;
+                }
+                x3mlModified = x3mlNow;
+                policyModified = policyNow;
+                try {
+                    Plan plan = compile(read(x3mlFile), policyFile == null ? null : read(policyFile));
+                    if (plan != current) {
+                        current = plan;
+                        LOG.info(name + ": reloaded " + plan);
+                    }
+                }
+                catch (RuntimeException e) {
+                    LOG.warn(name + ": keeping " + current + ", reload failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopWatching() {
+        if (watch != null) {
+            watch.cancel(false);
+            watch = null;
+        }
+    }
+
+    private Plan compile(byte[] x3ml, byte[] policy) {
+        Plan plan = current;
+        String mappingHash = x3ml == null ? plan.mappingHash : NativeGenerators.sha1(x3ml);
+        String policyHash = policy == null ? (plan == null ? null : plan.policyHash) : NativeGenerators.sha1(policy);
+        if (plan != null && mappingHash.equals(plan.mappingHash) && equal(policyHash, plan.policyHash)) {
+            return plan;
+        }
+        X3MLEngine engine = plan != null && mappingHash.equals(plan.mappingHash) ?
+                plan.engine :
+                X3MLEngine.load(new ByteArrayInputStream(x3ml));
+        GeneratorPolicy generatorPolicy = null;
+        if (plan != null && equal(policyHash, plan.policyHash)) {
+            generatorPolicy = plan.policy;
+        }
+        else if (policy != null) {
+            generatorPolicy = (GeneratorPolicy) generatorStream().fromXML(new ByteArrayInputStream(policy));
+        }
+        X3MLGeneratorPolicy.create(generatorPolicy, X3MLGeneratorPolicy.createUUIDSource(1)); // checks it
+        return new Plan(plan == null ? 1 : plan.version + 1, mappingHash, policyHash, engine, generatorPolicy);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static byte[] read(File file) {
+        try {
+            return FileUtils.readFileToByteArray(file);
+        }
+        catch (IOException e) {
+            throw exception("Unable to read " + file, e);
+        }
+    }
+
+    private static class Reloader {
+        static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "x3ml-reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
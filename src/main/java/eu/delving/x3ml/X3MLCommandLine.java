@@ -15,21 +15,28 @@
 //===========================================================================
 package eu.delving.x3ml;
 
-import eu.delving.x3ml.engine.Generator;
+import eu.delving.x3ml.engine.Diagnostics;
+import eu.delving.x3ml.engine.InputCatalog;
+import eu.delving.x3ml.engine.LiveMetrics;
+import eu.delving.x3ml.engine.MemoryReport;
+import eu.delving.x3ml.engine.SourceParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
-import org.w3c.dom.Document;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
 import org.w3c.dom.Element;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.List;
@@ -61,16 +68,15 @@ public class X3MLCommandLine {
     }
 
     public static void main(String[] args) {
+        logToStandardError();
         Option xml = new Option(
                 "xml", true,
                 "XML input records: -xml input.xml (@ = stdin)"
         );
-        xml.setRequired(true);
         Option x3ml = new Option(
                 "x3ml", true,
                 "X3ML mapping definition: -x3ml mapping.x3ml (@ = stdin)"
         );
-        x3ml.setRequired(true);
         Option rdf = new Option(
                 "rdf", true,
                 "The RDF output file name: -rdf output.rdf"
@@ -91,24 +97,77 @@ public class X3MLCommandLine {
                 "uuidTestSize", true,
                 "Create a test UUID generator of the given size. Default is UUID from operating system"
         );
+        Option cache = new Option(
+                "cache", true,
+                "Remember custom generator values between runs in this file: -cache generated.cache"
+        );
+        Option snapshots = new Option(
+                "snapshots", true,
+                "Keep parsed mappings and policies in this directory to load them faster: -snapshots snapshot-dir"
+        );
+        Option project = new Option(
+                "project", false,
+                "Parse only the parts of the XML input that the mapping refers to"
+        );
+        Option catalog = new Option(
+                "catalog", true,
+                "Resolve DTDs and schemas that the XML input refers to from this directory instead of skipping them: -catalog catalog-dir"
+        );
+        Option profile = new Option(
+                "profile", true,
+                "Report the time, counts and triples of every mapping and link on standard error: -profile table (or json)"
+        );
+        Option xpathStats = new Option(
+                "xpathStats", true,
+                "Report the xpath expressions which took the most time on standard error: -xpathStats 20"
+        );
+        Option memory = new Option(
+                "memory", true,
+                "Report estimated memory use per structure on standard error, and optionally abort or save memory when over a limit: -memory report (or abort:90% of the heap, save:2048 estimated MB)"
+        );
+        Option dryRun = new Option(
+                "dryRun", true,
+                "Instead of mapping, estimate the contexts, join fan-out and triples of every mapping and link, following at most so many domain nodes per mapping (0 = all), on standard error: -dryRun 1000"
+        );
+        Option metrics = new Option(
+                "metrics", true,
+                "Log throughput and cache hit rates every so many seconds, and publish them through JMX: -metrics 10"
+        );
+        Option server = new Option(
+                "server", true,
+                "Instead of mapping, keep mappings loaded and serve requests on this local port: -server 8090 (with -x3ml and -policy as the default mapping, reloaded when changed)"
+        );
+        Option threads = new Option(
+                "threads", true,
+                "How many requests the server maps at once. Default is the number of processors"
+        );
+        Option timeout = new Option(
+                "timeout", true,
+                "How many seconds the server allows for a request. Default is 60"
+        );
         options.addOption(rdfFormat).addOption(rdf).addOption(x3ml).addOption(xml).addOption(policy)
-                .addOption(validate).addOption(uuidTestSize);
+                .addOption(validate).addOption(uuidTestSize).addOption(cache).addOption(snapshots).addOption(project)
+                .addOption(catalog).addOption(profile).addOption(xpathStats).addOption(memory).addOption(dryRun).addOption(metrics).addOption(server).addOption(threads).addOption(timeout);
         try {
             CommandLine cli = PARSER.parse(options, args);
-            int uuidTestSizeValue = -1;
-            String uuidTestSizeString = cli.getOptionValue("uuidTestSize");
-            if (uuidTestSizeString != null) {
-                uuidTestSizeValue = Integer.parseInt(uuidTestSizeString);
-            }
-            go(
-                    cli.getOptionValue("xml"),
-                    cli.getOptionValue("x3ml"),
-                    cli.getOptionValue("policy"),
-                    cli.getOptionValue("rdf"),
-                    cli.getOptionValue("format"),
-                    cli.hasOption("validate"),
-                    uuidTestSizeValue
-            );
+            if (cli.hasOption("catalog")) {
+                SourceParser.setCatalog(InputCatalog.of(new File(cli.getOptionValue("catalog"))));
+            }
+            if (cli.hasOption("server")) {
+                serve(
+                        Integer.parseInt(cli.getOptionValue("server")),
+                        Integer.parseInt(cli.getOptionValue("threads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                        Integer.parseInt(cli.getOptionValue("timeout", "60")),
+                        cli.getOptionValue("cache"),
+                        cli.getOptionValue("x3ml"),
+                        cli.getOptionValue("policy")
+                );
+                return;
+            }
+            if (!cli.hasOption("xml") || !cli.hasOption("x3ml")) {
+                error("Missing required options: xml, x3ml");
+            }
+            go(Settings.from(cli));
         }
         catch (Exception e) {
             error(e.getMessage());
@@ -124,25 +183,8 @@ public class X3MLCommandLine {
         return file;
     }
 
-    static DocumentBuilderFactory documentBuilderFactory() {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        return factory;
-    }
-
     static Element xml(InputStream inputStream) {
-        try {
-            DocumentBuilder builder = documentBuilderFactory().newDocumentBuilder();
-            Document document = builder.parse(inputStream);
-            return document.getDocumentElement();
-        }
-        catch (Exception e) {
-            throw exception("Unable to parse XML input");
-        }
-    }
-
-    static Element xml(File file) {
-        return xml(getStream(file));
+        return SourceParser.parse(inputStream);
     }
 
     static FileInputStream getStream(File file) {
@@ -154,7 +196,7 @@ public class X3MLCommandLine {
         }
     }
 
-    static Generator getValuePolicy(String policy, X3MLGeneratorPolicy.UUIDSource uuidSource) {
+    static X3MLGeneratorPolicy getValuePolicy(String policy, X3MLGeneratorPolicy.UUIDSource uuidSource) {
         FileInputStream stream = null;
         if (policy != null) {
             stream = getStream(file(policy));
@@ -177,24 +219,65 @@ public class X3MLCommandLine {
         }
     }
 
-    static void go(String xml, String x3ml, String policy, String rdf, String rdfFormat, boolean validate, int uuidTestSize) {
-        Element xmlElement;
-        if ("@".equals(xml)) {
-            xmlElement = xml(System.in);
-        }
-        else {
-            xmlElement = xml(file(xml));
+    /**
+     * What the command line asks for when mapping, absent options left at their defaults.
+     */
+    static class Settings {
+        String xml, x3ml, policy, rdf, rdfFormat;
+        boolean validate;
+        int uuidTestSize = -1;
+        String cache, snapshots;
+        boolean project;
+        String profile;
+        int xpathStats;
+        int metricsSeconds;
+        String memory;
+        int dryRun = -1;
+
+        static Settings from(CommandLine cli) {
+            Settings settings = new Settings();
+            settings.xml = cli.getOptionValue("xml");
+            settings.x3ml = cli.getOptionValue("x3ml");
+            settings.policy = cli.getOptionValue("policy");
+            settings.rdf = cli.getOptionValue("rdf");
+            settings.rdfFormat = cli.getOptionValue("format");
+            settings.validate = cli.hasOption("validate");
+            if (cli.hasOption("uuidTestSize")) {
+                settings.uuidTestSize = Integer.parseInt(cli.getOptionValue("uuidTestSize"));
+            }
+            settings.cache = cli.getOptionValue("cache");
+            settings.snapshots = cli.getOptionValue("snapshots");
+            settings.project = cli.hasOption("project");
+            settings.profile = cli.getOptionValue("profile");
+            if (cli.hasOption("xpathStats")) {
+                settings.xpathStats = Integer.parseInt(cli.getOptionValue("xpathStats"));
+            }
+            if (cli.hasOption("metrics")) {
+                settings.metricsSeconds = Integer.parseInt(cli.getOptionValue("metrics"));
+            }
+            settings.memory = cli.getOptionValue("memory");
+            if (cli.hasOption("dryRun")) {
+                settings.dryRun = Integer.parseInt(cli.getOptionValue("dryRun"));
+            }
+            return settings;
         }
-        InputStream x3mlStream;
-        if ("@".equals(x3ml)) {
-            if (validate) {
+    }
+
+    static void go(Settings settings) {
+        InputStream xmlStream = "@".equals(settings.xml) ? System.in : getStream(file(settings.xml));
+        // the input is read before the mapping, unless only what the mapping refers to is to be parsed
+        Element xmlElement = settings.project ? null : xml(xmlStream);
+        PlanSnapshot planSnapshot = settings.snapshots == null ? null : new PlanSnapshot(new File(settings.snapshots));
+        X3MLEngine engine;
+        if ("@".equals(settings.x3ml)) {
+            if (settings.validate) {
                 throw exception("Cannot validate when X3ML is piped");
             }
-            x3mlStream = System.in;
+            engine = X3MLEngine.load(System.in);
         }
         else {
-            if (validate) {
-                List<String> errors = X3MLEngine.validate(getStream(file(x3ml)));
+            if (settings.validate) {
+                List<String> errors = planSnapshot == null ? X3MLEngine.validate(getStream(file(settings.x3ml))) : planSnapshot.validate(file(settings.x3ml));
                 if (!errors.isEmpty()) {
                     System.out.println("Validation:");
                     for (String error : errors) {
@@ -203,13 +286,99 @@ public class X3MLCommandLine {
                     return;
                 }
             }
-            x3mlStream = getStream(file(x3ml));
+            engine = planSnapshot == null ? X3MLEngine.load(getStream(file(settings.x3ml))) : planSnapshot.loadEngine(file(settings.x3ml));
+        }
+        if (settings.project) {
+            xmlElement = engine.getSourceProjection().parse(xmlStream);
+        }
+        if (settings.dryRun >= 0) {
+            System.err.print(engine.dryRun(xmlElement, settings.dryRun).toTable()); // not into the RDF output
+            return;
+        }
+        X3MLGeneratorPolicy.UUIDSource uuidSource = X3MLGeneratorPolicy.createUUIDSource(settings.uuidTestSize);
+        X3MLGeneratorPolicy generatorPolicy;
+        if (planSnapshot != null && settings.policy != null) {
+            generatorPolicy = planSnapshot.loadPolicy(file(settings.policy), uuidSource);
+        }
+        else {
+            generatorPolicy = getValuePolicy(settings.policy, uuidSource);
+        }
+        GeneratorCache generatorCache = null;
+        if (settings.cache != null) {
+            generatorCache = GeneratorCache.open(new File(settings.cache), GeneratorCache.DEFAULT_CAPACITY);
+            generatorPolicy.setCache(generatorCache);
+        }
+        engine.setProfiling(settings.profile != null);
+        engine.setXPathStatistics(settings.xpathStats > 0);
+        if (settings.memory != null) {
+            engine.setMemoryAccounting(true, "report".equals(settings.memory) ? null : MemoryReport.Limit.parse(settings.memory));
+        }
+        LiveMetrics metrics = null;
+        if (settings.metricsSeconds > 0) {
+            metrics = new LiveMetrics();
+            metrics.register(settings.x3ml);
+            metrics.logEvery(settings.metricsSeconds * 1000L);
+            engine.setMetrics(metrics);
+            generatorPolicy.setMetrics(metrics);
+        }
+        try {
+            X3MLEngine.Output output = engine.execute(xmlElement, generatorPolicy);
+            output.write(rdf(settings.rdf), settings.rdfFormat);
+            if (settings.profile != null) {
+                System.err.print("json".equals(settings.profile) ? engine.getProfile().toJSON() : engine.getProfile().toTable());
+            }
+            if (settings.xpathStats > 0) {
+                System.err.print(engine.getXPathStatistics().report(settings.xpathStats));
+            }
+            if (settings.memory != null) {
+                System.err.print(engine.getMemoryReport());
+            }
+        }
+        finally {
+            if (generatorCache != null) {
+                generatorCache.close();
+            }
+            Diagnostics.logSummary();
+            if (metrics != null) {
+                metrics.stopLogging();
+                metrics.unregister();
+                Logger.getLogger("eu.delving.x3ml").info(metrics);
+            }
+        }
+    }
+
+    static void serve(int port, int threads, int timeoutSeconds, String cache, String x3ml, String policy) throws IOException {
+        final X3MLServer server = X3MLServer.start(port, threads, timeoutSeconds * 1000L);
+        if (x3ml != null) { // the default mapping, reloaded when the files change
+            File x3mlFile = file(x3ml);
+            File policyFile = policy == null ? null : file(policy);
+            ReloadableMapping mapping = ReloadableMapping.load(
+                    "default",
+                    FileUtils.readFileToByteArray(x3mlFile),
+                    policyFile == null ? null : FileUtils.readFileToByteArray(policyFile)
+            );
+            mapping.watch(x3mlFile, policyFile, 2000);
+            server.bind(mapping);
+        }
+        if (cache != null) {
+            final GeneratorCache generatorCache = GeneratorCache.open(new File(cache), GeneratorCache.DEFAULT_CAPACITY);
+            server.setCache(generatorCache);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    server.stop();
+                    generatorCache.close();
+                }
+            });
+        }
+    }
+
+    private static void logToStandardError() {
+        Logger root = Logger.getRootLogger();
+        if (!root.getAllAppenders().hasMoreElements()) { // the RDF may be going to stdout
+            ConsoleAppender appender = new ConsoleAppender(new PatternLayout("%-5p %m%n"), ConsoleAppender.SYSTEM_ERR);
+            root.addAppender(appender);
+            root.setLevel(Level.INFO);
         }
-        X3MLEngine engine = X3MLEngine.load(x3mlStream);
-        X3MLEngine.Output output = engine.execute(
-                xmlElement,
-                getValuePolicy(policy, X3MLGeneratorPolicy.createUUIDSource(uuidTestSize))
-        );
-        output.write(rdf(rdf), rdfFormat);
     }
 }
@@ -16,24 +16,25 @@
 package eu.delving.x3ml;
 
 import eu.delving.x3ml.engine.Generator;
+import eu.delving.x3ml.engine.Profile;
 import eu.delving.x3ml.engine.Root;
+import eu.delving.x3ml.engine.Cardinality;
+import eu.delving.x3ml.engine.MemoryReport;
+import eu.delving.x3ml.engine.Metrics;
+import eu.delving.x3ml.engine.SourceProjection;
+import eu.delving.x3ml.engine.XPathStats;
 
 import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.ls.LSInput;
 import org.w3c.dom.ls.LSResourceResolver;
-import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
 
 import com.hp.hpl.jena.rdf.model.Model;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -66,6 +67,13 @@ public class X3MLEngine {
     private RootElement rootElement;
     private NamespaceContext namespaceContext = new XPathContext();
     private List<String> prefixes = new ArrayList<String>();
+    private SourceProjection sourceProjection; // guarded by this
+    private volatile Profile profile;
+    private volatile XPathStats xpathStats;
+    private volatile Metrics metrics = Metrics.NONE;
+    private volatile boolean memoryAccounting;
+    private volatile MemoryReport.Limit memoryLimit;
+    private volatile MemoryReport memoryReport;
 
     public static List<String> validate(InputStream inputStream) {
         try {
@@ -80,7 +88,10 @@ public class X3MLEngine {
     }
 
     public static X3MLEngine load(InputStream inputStream) throws X3MLException {
-        RootElement rootElement = (RootElement) x3mlStream().fromXML(inputStream);
+        return create((RootElement) x3mlStream().fromXML(inputStream));
+    }
+
+    static X3MLEngine create(RootElement rootElement) throws X3MLException {
         if (!VERSION.equals(rootElement.version)) {
             throw exception("Incorrect X3ML Version "+rootElement.version+ ", expected "+VERSION);
         }
@@ -99,8 +110,32 @@ public class X3MLEngine {
         return new X3MLException(message, throwable);
     }
 
+    /**
+     * @param message what went wrong
+     * @param detail usually a mapping element, only rendered when the message is shown
+     * @return the exception to throw
+     */
+    public static X3MLException exception(String message, Object detail) {
+        return new X3MLException(message, detail);
+    }
+
+    /**
+     * @return what the source needs to contain for this mapping
+     */
+    public synchronized SourceProjection getSourceProjection() {
+        if (sourceProjection == null) {
+            sourceProjection = SourceProjection.of(rootElement);
+        }
+        return sourceProjection;
+    }
+
     public Output execute(Element sourceRoot, Generator generator) throws X3MLException {
-        Root rootContext = new Root(sourceRoot, generator, namespaceContext, prefixes);
+        Profile total = profile;
+        XPathStats totalXPath = xpathStats;
+        Root rootContext = new Root(sourceRoot, generator, namespaceContext, prefixes, total != null, totalXPath != null, metrics);
+        if (memoryAccounting) {
+            memoryReport = rootContext.reportMemory(memoryLimit);
+        }
         generator.setDefaultArgType(rootElement.sourceType);
         generator.setLanguageFromMapping(rootElement.language);
         if (rootElement.namespaces != null) {
@@ -109,9 +144,94 @@ public class X3MLEngine {
             }
         }
         rootElement.apply(rootContext);
+        if (total != null) {
+            total.merge(rootContext.getProfile());
+        }
+        if (totalXPath != null) {
+            totalXPath.merge(rootContext.getXPathStats());
+        }
         return rootContext.getModelOutput();
     }
 
+    /**
+     * Estimate what executing over this source would make, without
+     * generating anything.
+     *
+     * @param sourceRoot the source
+     * @param sample how many domain nodes of each mapping to follow, 0 for all of them
+     * @return contexts, fan-out and triples per mapping and link
+     */
+    public Cardinality dryRun(Element sourceRoot, int sample) {
+        return Cardinality.estimate(rootElement, sourceRoot, namespaceContext, sample);
+    }
+
+    /**
+     * Profile every execution from now on, per mapping and per link, adding
+     * up into one total.
+     *
+     * @param profiling true to start, false to stop and forget the total
+     */
+    public void setProfiling(boolean profiling) {
+        profile = profiling ? Profile.total() : null;
+    }
+
+    /**
+     * @return the total of the profiled executions, or null if not profiling
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Count every xpath evaluation from now on, per expression and the place
+     * in the mapping it is used, adding up into one total.
+     *
+     * @param counting true to start, false to stop and forget the total
+     */
+    public void setXPathStatistics(boolean counting) {
+        xpathStats = counting ? new XPathStats() : null;
+    }
+
+    /**
+     * @return the total of the counted evaluations, or null if not counting
+     */
+    public XPathStats getXPathStatistics() {
+        return xpathStats;
+    }
+
+    /**
+     * Report records, triples, compiled expressions and join indexes as the
+     * executions go. The generator policy reports its calls and cache use
+     * when it is given the same metrics.
+     *
+     * @param metrics where to report, or null to stop
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics == null ? Metrics.NONE : metrics;
+    }
+
+    /**
+     * Estimate what every execution from now on keeps in memory, per
+     * structure, and optionally act when it gets too much.
+     *
+     * @param accounting true to start, false to stop
+     * @param limit when to abort or save memory, or null to only report
+     */
+    public void setMemoryAccounting(boolean accounting, MemoryReport.Limit limit) {
+        memoryLimit = limit;
+        memoryAccounting = accounting;
+        if (!accounting) {
+            memoryReport = null;
+        }
+    }
+
+    /**
+     * @return the estimate of the most recent execution, or null if not accounting
+     */
+    public MemoryReport getMemoryReport() {
+        return memoryReport;
+    }
+
     public String toString() {
         return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + x3mlStream().toXML(rootElement);
     }
@@ -132,6 +252,7 @@ public class X3MLEngine {
 
     private X3MLEngine(RootElement rootElement) {
         this.rootElement = rootElement;
+        this.rootElement.identify();
         if (this.rootElement.namespaces != null) {
             for (MappingNamespace namespace : this.rootElement.namespaces) {
                 ((XPathContext) namespaceContext).addNamespace(namespace.prefix, namespace.uri);
@@ -176,31 +297,10 @@ public class X3MLEngine {
     }
 
     public static List<String> validateStream(InputStream inputStream) throws SAXException, IOException {
-        Schema schema = schemaFactory().newSchema(new StreamSource(inputStream("x3ml_v1.0.xsd")));
-        Validator validator = schema.newValidator();
-        final List<String> errors = new ArrayList<String>();
-        validator.setErrorHandler(new ErrorHandler() {
-            @Override
-            public void warning(SAXParseException exception) throws SAXException {
-                errors.add(errorMessage(exception));
-            }
-
-            @Override
-            public void error(SAXParseException exception) throws SAXException {
-                errors.add(errorMessage(exception));
-            }
-
-            @Override
-            public void fatalError(SAXParseException exception) throws SAXException {
-                errors.add(errorMessage(exception));
-            }
-        });
-        StreamSource source = new StreamSource(inputStream);
-        validator.validate(source);
-        return errors;
+        return X3MLValidator.validate(inputStream);
     }
 
-    private static SchemaFactory schemaFactory() {
+    static SchemaFactory schemaFactory() {
         SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
         try {
 //            schemaFactory.setFeature(Constants.XERCES_FEATURE_PREFIX + Constants.CTA_FULL_XPATH_CHECKING_FEATURE, true);
@@ -212,13 +312,6 @@ public class X3MLEngine {
         return schemaFactory;
     }
 
-    private static String errorMessage(SAXParseException e) {
-        return String.format(
-                "%d:%d - %s",
-                e.getLineNumber(), e.getColumnNumber(), e.getMessage()
-        );
-    }
-
     public static class ResourceResolver implements LSResourceResolver {
 
         @Override
@@ -328,18 +421,38 @@ public class X3MLEngine {
         }
     }
 
-    private static InputStream inputStream(String fileName) {
+    static InputStream inputStream(String fileName) {
         return X3MLEngine.class.getResourceAsStream("/validation/" + fileName);
     }
 
     public static class X3MLException extends RuntimeException {
+        private final Object detail;
+        private String message;
 
         public X3MLException(String s) {
             super(s);
+            this.detail = null;
         }
 
         public X3MLException(String s, Throwable throwable) {
             super(s, throwable);
+            this.detail = null;
+        }
+
+        public X3MLException(String s, Object detail) {
+            super(s);
+            this.detail = detail;
+        }
+
+        @Override
+        public String getMessage() {
+            if (detail == null) {
+                return super.getMessage();
+            }
+            if (message == null) {
+                message = super.getMessage() + "\n" + detail;
+            }
+            return message;
         }
     }
 }
@@ -18,17 +18,25 @@ package eu.delving.x3ml;
 import com.damnhandy.uri.template.MalformedUriTemplateException;
 import com.damnhandy.uri.template.UriTemplate;
 import com.damnhandy.uri.template.VariableExpansionException;
-import eu.delving.x3ml.engine.Generator;
+import eu.delving.x3ml.NativeGenerators.NativeGenerator;
+import eu.delving.x3ml.engine.BatchGenerator;
+import eu.delving.x3ml.engine.Metrics;
+import eu.delving.x3ml.engine.Stages;
 
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,20 +46,22 @@ import static eu.delving.x3ml.engine.X3ML.Helper.generatorStream;
 import static eu.delving.x3ml.engine.X3ML.Helper.literalValue;
 import static eu.delving.x3ml.engine.X3ML.Helper.typedLiteralValue;
 import static eu.delving.x3ml.engine.X3ML.Helper.uriValue;
-import static eu.delving.x3ml.engine.X3ML.SourceType.constant;
-import static eu.delving.x3ml.engine.X3ML.SourceType.xpath;
 
 /**
  * @author Gerald de Jong <gerald@delving.eu>
  */
 
-public class X3MLGeneratorPolicy implements Generator {
+public class X3MLGeneratorPolicy implements BatchGenerator {
     private static final Pattern BRACES = Pattern.compile("\\{[?;+#]?([^}]+)\\}");
     private Map<String, GeneratorSpec> generatorMap = new TreeMap<String, GeneratorSpec>();
     private Map<String, String> namespaceMap = new TreeMap<String, String>();
     private UUIDSource uuidSource;
     private SourceType defaultSourceType;
     private String languageFromMapping;
+    private int maxPendingLookups = Integer.getInteger("x3ml.lookups.pending", 16);
+    private long lookupTimeout = Long.getLong("x3ml.lookups.timeout", 60000L);
+    private GeneratorCache cache;
+    private Metrics metrics = Metrics.NONE;
 
     public interface CustomGenerator {
         void setArg(String name, String value) throws CustomGeneratorException;
@@ -62,23 +72,45 @@ public class X3MLGeneratorPolicy implements Generator {
 
     }
 
+    /**
+     * A custom generator which looks its value up somewhere else, such as an
+     * authority service. When the engine generates for many nodes at once,
+     * lookups are started for several nodes before the first one is awaited,
+     * up to the maximum number of pending lookups. The value type is asked
+     * once the value has arrived.
+     */
+    public interface AsyncCustomGenerator {
+        void setArg(String name, String value) throws CustomGeneratorException;
+
+        Future<String> requestValue() throws CustomGeneratorException;
+
+        String getValueType() throws CustomGeneratorException;
+    }
+
     public static class CustomGeneratorException extends Exception {
         public CustomGeneratorException(String message) {
             super(message);
         }
+
+        public CustomGeneratorException(String message, Throwable cause) {
+            super(message, cause);
+        }
     }
 
     public static X3MLGeneratorPolicy load(InputStream inputStream, UUIDSource uuidSource) {
-        return new X3MLGeneratorPolicy(inputStream, uuidSource);
+        return create(inputStream == null ? null : (GeneratorPolicy) generatorStream().fromXML(inputStream), uuidSource);
+    }
+
+    static X3MLGeneratorPolicy create(GeneratorPolicy policy, UUIDSource uuidSource) {
+        return new X3MLGeneratorPolicy(policy, uuidSource);
     }
 
     public static UUIDSource createUUIDSource(int uuidSize) {
         return uuidSize > 0 ? new TestUUIDSource(uuidSize) : new RealUUIDSource();
     }
 
-    private X3MLGeneratorPolicy(InputStream inputStream, UUIDSource uuidSource) {
-        if (inputStream != null) {
-            GeneratorPolicy policy = (GeneratorPolicy) generatorStream().fromXML(inputStream);
+    private X3MLGeneratorPolicy(GeneratorPolicy policy, UUIDSource uuidSource) {
+        if (policy != null) {
             for (GeneratorSpec generator : policy.generators) {
                 if (generatorMap.containsKey(generator.name)) {
                     throw exception("Duplicate generator name: " + generator.name);
@@ -89,6 +121,32 @@ public class X3MLGeneratorPolicy implements Generator {
         if ((this.uuidSource = uuidSource) == null) throw exception("UUID Source needed");
     }
 
+    /**
+     * @param maxPending how many lookups of an AsyncCustomGenerator may be outstanding
+     * @param timeoutMillis how long to wait for any one lookup
+     */
+    public void setLookupLimits(int maxPending, long timeoutMillis) {
+        if (maxPending < 1 || timeoutMillis < 1) {
+            throw exception("Lookup limits must be positive");
+        }
+        this.maxPendingLookups = maxPending;
+        this.lookupTimeout = timeoutMillis;
+    }
+
+    /**
+     * @param cache where to remember the values of custom generators between runs, or null
+     */
+    public void setCache(GeneratorCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param metrics where to report the calls and the use of the cache, or null for nowhere
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics == null ? Metrics.NONE : metrics;
+    }
+
     @Override
     public void setDefaultArgType(SourceType sourceType) {
         this.defaultSourceType = sourceType;
@@ -116,96 +174,414 @@ public class X3MLGeneratorPolicy implements Generator {
         if (name == null) {
             throw exception("Value function name missing");
         }
-        if ("UUID".equals(name)) {
-            return uriValue(uuidSource.generateUUID());
+        metrics.generatorCalls(1);
+        Object span = Stages.begin(Stages.Stage.GENERATOR);
+        try {
+            return generateOne(name, argValues);
+        }
+        finally {
+            Stages.end(span, name, 1);
+        }
+    }
+
+    private GeneratedValue generateOne(String name, ArgValues argValues) {
+        NativeGenerator nativeGenerator = nativeByName(name);
+        if (nativeGenerator != null) {
+            return nativeGenerator.generate(new NamedArguments(argValues));
         }
-        if ("Literal".equals(name)) {
-            ArgValue value = argValues.getArgValue("text", xpath);
-            if (value == null) {
-                throw exception("Argument failure: need one argument");
+        GeneratorSpec generator = getSpec(name);
+        if (generator.custom != null) {
+            nativeGenerator = NativeGenerators.byClass(generator.custom.generatorClass);
+            if (nativeGenerator != null) {
+                return nativeGenerator.generate(new CustomArguments(generator.custom.setArgs, argValues));
+            }
+            return fromCustomGenerator(generator, customConstructor(generator), argValues);
+        }
+        else if (generator.prefix != null) { // use URI template
+            return fromURITemplate(generator, getNamespaceUri(generator), uriTemplate(generator), getVariables(generator.pattern), argValues);
+        }
+        else { // use simple substitution
+            return fromSimpleTemplate(generator, getVariables(generator.pattern), argValues);
+        }
+    }
+
+    @Override
+    public boolean isBatchable(String name) {
+        if (uuidSource instanceof RealUUIDSource) {
+            return true; // random UUIDs, so the order of generation does not matter
+        }
+        NativeGenerator nativeGenerator = nativeByName(name);
+        if (nativeGenerator == null) {
+            GeneratorSpec generator = generatorMap.get(name);
+            if (generator == null) {
+                return false;
+            }
+            if (generator.custom == null) {
+                return true; // templates
             }
-            if (value.string == null || value.string.isEmpty()) {
-                throw exception("Argument failure: empty argument");
+            nativeGenerator = NativeGenerators.byClass(generator.custom.generatorClass);
+            if (nativeGenerator == null) {
+                return isAsync(generator); // otherwise its value type may well be UUID
             }
-            return literalValue(value.string, getLanguage(value.language, argValues));
         }
-        if ("Constant".equals(name)) {
-            ArgValue value = argValues.getArgValue("text", constant);
-            if (value == null) {
-                throw exception("Argument failure: need one argument");
+        return nativeGenerator != NativeGenerators.UUID && nativeGenerator != NativeGenerators.URI_OR_UUID;
+    }
+
+    @Override
+    public List<GeneratedValue> generate(String name, List<ArgValues> argumentList) {
+        if (name == null) {
+            throw exception("Value function name missing");
+        }
+        metrics.generatorCalls(argumentList.size());
+        Object span = Stages.begin(Stages.Stage.GENERATOR);
+        try {
+            return generateAll(name, argumentList);
+        }
+        finally {
+            Stages.end(span, name, argumentList.size());
+        }
+    }
+
+    private List<GeneratedValue> generateAll(String name, List<ArgValues> argumentList) {
+        List<GeneratedValue> values = new ArrayList<GeneratedValue>(argumentList.size());
+        NativeGenerator nativeGenerator = nativeByName(name);
+        if (nativeGenerator != null) {
+            for (ArgValues argValues : argumentList) {
+                values.add(nativeGenerator.generate(new NamedArguments(argValues)));
             }
-            return literalValue(value.string, getLanguage(value.language, argValues));
+            return values;
         }
-        GeneratorSpec generator = generatorMap.get(name);
-        if (generator == null) throw exception("No generator for " + name);
+        GeneratorSpec generator = getSpec(name);
         if (generator.custom != null) {
-            return fromCustomGenerator(generator, argValues);
+            nativeGenerator = NativeGenerators.byClass(generator.custom.generatorClass);
+            if (nativeGenerator != null) {
+                for (ArgValues argValues : argumentList) {
+                    values.add(nativeGenerator.generate(new CustomArguments(generator.custom.setArgs, argValues)));
+                }
+            }
+            else {
+                Constructor<?> constructor = customConstructor(generator);
+                if (AsyncCustomGenerator.class.isAssignableFrom(constructor.getDeclaringClass())) {
+                    values.addAll(fromAsyncGenerator(generator, constructor, argumentList));
+                }
+                else {
+                    for (ArgValues argValues : argumentList) {
+                        values.add(fromCustomGenerator(generator, constructor, argValues));
+                    }
+                }
+            }
         }
-        else if (generator.prefix != null) { // use URI template
-            String namespaceUri = namespaceMap.get(generator.prefix);
-            if (namespaceUri == null) {
-                throw exception("No namespace for prefix "+ generator.prefix + "in generator policy");
+        else if (generator.prefix != null) {
+            String namespaceUri = getNamespaceUri(generator);
+            UriTemplate uriTemplate = uriTemplate(generator);
+            List<String> variables = getVariables(generator.pattern);
+            for (ArgValues argValues : argumentList) {
+                values.add(fromURITemplate(generator, namespaceUri, uriTemplate, variables, argValues));
             }
-            return fromURITemplate(generator, namespaceUri, argValues);
         }
-        else { // use simple substitution
-            return fromSimpleTemplate(generator, argValues);
+        else {
+            List<String> variables = getVariables(generator.pattern);
+            for (ArgValues argValues : argumentList) {
+                values.add(fromSimpleTemplate(generator, variables, argValues));
+            }
         }
+        return values;
     }
 
-    private GeneratedValue fromCustomGenerator(GeneratorSpec generator, ArgValues argValues) {
+    private NativeGenerator nativeByName(String name) {
+        NativeGenerator nativeGenerator = NativeGenerators.byName(name);
+        if (nativeGenerator != null && (NativeGenerators.isReserved(name) || !generatorMap.containsKey(name))) {
+            return nativeGenerator;
+        }
+        return null;
+    }
+
+    private GeneratorSpec getSpec(String name) {
+        GeneratorSpec generator = generatorMap.get(name);
+        if (generator == null) throw exception("No generator for " + name);
+        return generator;
+    }
+
+    private String getNamespaceUri(GeneratorSpec generator) {
+        String namespaceUri = namespaceMap.get(generator.prefix);
+        if (namespaceUri == null) {
+            throw exception("No namespace for prefix "+ generator.prefix + "in generator policy");
+        }
+        return namespaceUri;
+    }
+
+    private class NamedArguments implements NativeGenerators.Arguments {
+        private final ArgValues argValues;
+
+        private NamedArguments(ArgValues argValues) {
+            this.argValues = argValues;
+        }
+
+        @Override
+        public ArgValue get(String name, SourceType sourceType) {
+            return argValues.getArgValue(name, sourceType);
+        }
+
+        @Override
+        public String language(String language) {
+            return getLanguage(language, argValues);
+        }
+
+        @Override
+        public String namespaceUri(String prefix) {
+            return namespaceMap.get(prefix);
+        }
+
+        @Override
+        public String generateUUID() {
+            return uuidSource.generateUUID();
+        }
+    }
+
+    private class CustomArguments extends NamedArguments {
+        private final List<CustomArg> setArgs;
+
+        private CustomArguments(List<CustomArg> setArgs, ArgValues argValues) {
+            super(argValues);
+            this.setArgs = setArgs;
+        }
+
+        @Override
+        public ArgValue get(String name, SourceType sourceType) {
+            for (CustomArg customArg : setArgs) {
+                if (customArg.name.equals(name)) {
+                    return super.get(name, customArg.type != null ? SourceType.valueOf(customArg.type) : defaultSourceType);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static Constructor<?> customConstructor(GeneratorSpec generator) {
         String className = generator.custom.generatorClass;
         try {
-            Class<?> customClass = Class.forName(className);
-            Constructor<?> constructor = customClass.getConstructor();
-            CustomGenerator instance = (CustomGenerator) constructor.newInstance();
-            for (CustomArg customArg : generator.custom.setArgs) {
-                SourceType sourceType = defaultSourceType;
-                if (customArg.type != null) {
-                    sourceType = SourceType.valueOf(customArg.type);
-                }
-                ArgValue argValue = argValues.getArgValue(customArg.name, sourceType);
-                instance.setArg(customArg.name, argValue.string);
+            return Class.forName(className).getConstructor();
+        }
+        catch (ClassNotFoundException e) {
+            throw new X3MLEngine.X3MLException("Custom generator class not found: " + className);
+        }
+        catch (NoSuchMethodException e) {
+            throw new X3MLEngine.X3MLException("Custom generator missing default constructor: " + className);
+        }
+    }
+
+    private GeneratedValue fromCustomGenerator(GeneratorSpec generator, Constructor<?> constructor, ArgValues argValues) {
+        try {
+            String[] args = customArgs(generator, argValues);
+            String key = cacheKey(generator, args);
+            GeneratedValue cached = recall(key);
+            if (cached != null) {
+                return cached;
             }
+            CustomGenerator instance = newCustomGenerator(constructor);
+            setCustomArgs(generator, instance, args);
             String value = instance.getValue();
             String returnType = instance.getValueType();
-            if (returnType.equals("URI")) {
-                return uriValue(value);
+            return remember(key, returnType, customValue(value, returnType));
+        }
+        catch (Exception e) {
+            throw customFailure(generator.custom.generatorClass, e);
+        }
+    }
+
+    private List<GeneratedValue> fromAsyncGenerator(GeneratorSpec generator, Constructor<?> constructor, List<ArgValues> argumentList) {
+        GeneratedValue[] values = new GeneratedValue[argumentList.size()];
+        List<Lookup> lookups = new ArrayList<Lookup>(argumentList.size());
+        int awaited = 0;
+        try {
+            for (int row = 0; row < values.length; row++) {
+                String[] args = customArgs(generator, argumentList.get(row));
+                String key = cacheKey(generator, args);
+                values[row] = recall(key);
+                if (values[row] != null) {
+                    continue;
+                }
+                if (lookups.size() - awaited >= maxPendingLookups) {
+                    lookups.get(awaited++).complete(values);
+                }
+                BlockingGenerator instance = (BlockingGenerator) newCustomGenerator(constructor);
+                setCustomArgs(generator, instance, args);
+                lookups.add(new Lookup(row, key, instance, instance.async.requestValue()));
             }
-            else if (returnType.equals("UUID")) {
-                return uriValue(uuidSource.generateUUID());
+            while (awaited < lookups.size()) {
+                lookups.get(awaited++).complete(values);
             }
-            else {
-                return typedLiteralValue(value);
+            return Arrays.asList(values);
+        }
+        catch (Exception e) {
+            for (int walk = awaited; walk < lookups.size(); walk++) {
+                lookups.get(walk).future.cancel(true);
+            }
+            throw customFailure(generator.custom.generatorClass, e);
+        }
+    }
+
+    private class Lookup {
+        private final int row;
+        private final String key;
+        private final BlockingGenerator generator;
+        private final Future<String> future;
+
+        private Lookup(int row, String key, BlockingGenerator generator, Future<String> future) {
+            this.row = row;
+            this.key = key;
+            this.generator = generator;
+            this.future = future;
+        }
+
+        private void complete(GeneratedValue[] values) throws CustomGeneratorException {
+            String value = awaitLookup(future);
+            String returnType = generator.getValueType();
+            values[row] = remember(key, returnType, customValue(value, returnType));
+        }
+    }
+
+    private String cacheKey(GeneratorSpec generator, String[] args) {
+        if (cache == null) {
+            return null;
+        }
+        String[] namedArgs = new String[args.length * 2];
+        for (int walk = 0; walk < args.length; walk++) {
+            namedArgs[walk * 2] = generator.custom.setArgs.get(walk).name;
+            namedArgs[walk * 2 + 1] = args[walk];
+        }
+        return GeneratorCache.key(generator.name, generator.custom.generatorClass, namedArgs);
+    }
+
+    private GeneratedValue recall(String key) {
+        if (key == null) {
+            return null;
+        }
+        GeneratedValue value = cache.get(key);
+        metrics.generatorCache(value != null);
+        return value;
+    }
+
+    private GeneratedValue remember(String key, String returnType, GeneratedValue value) {
+        if (key != null && !"UUID".equals(returnType)) { // a fresh UUID each time is the point
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    private CustomGenerator newCustomGenerator(Constructor<?> constructor) throws Exception {
+        Object instance = constructor.newInstance();
+        if (instance instanceof AsyncCustomGenerator) {
+            return new BlockingGenerator((AsyncCustomGenerator) instance);
+        }
+        return (CustomGenerator) instance;
+    }
+
+    private String[] customArgs(GeneratorSpec generator, ArgValues argValues) {
+        String[] args = new String[generator.custom.setArgs.size()];
+        int index = 0;
+        for (CustomArg customArg : generator.custom.setArgs) {
+            SourceType sourceType = defaultSourceType;
+            if (customArg.type != null) {
+                sourceType = SourceType.valueOf(customArg.type);
             }
+            ArgValue argValue = argValues.getArgValue(customArg.name, sourceType);
+            args[index++] = argValue.string;
+        }
+        return args;
+    }
+
+    private static void setCustomArgs(GeneratorSpec generator, CustomGenerator instance, String[] args) throws CustomGeneratorException {
+        for (int walk = 0; walk < args.length; walk++) {
+            instance.setArg(generator.custom.setArgs.get(walk).name, args[walk]);
+        }
+    }
+
+    private GeneratedValue customValue(String value, String returnType) {
+        if (returnType.equals("URI")) {
+            return uriValue(value);
+        }
+        else if (returnType.equals("UUID")) {
+            return uriValue(uuidSource.generateUUID());
+        }
+        else {
+            return typedLiteralValue(value);
+        }
+    }
+
+    private String awaitLookup(Future<String> future) throws CustomGeneratorException {
+        try {
+            return future.get(lookupTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CustomGeneratorException("Interrupted while waiting for lookup", e);
+        }
+        catch (ExecutionException e) {
+            throw new CustomGeneratorException("Lookup failed", e.getCause());
+        }
+        catch (TimeoutException e) {
+            throw new CustomGeneratorException("Lookup took longer than " + lookupTimeout + "ms", e);
+        }
+    }
+
+    private static boolean isAsync(GeneratorSpec generator) {
+        try {
+            return AsyncCustomGenerator.class.isAssignableFrom(Class.forName(generator.custom.generatorClass));
         }
         catch (ClassNotFoundException e) {
-            throw new X3MLEngine.X3MLException("Custom generator class not found: " + className);
+            return false; // reported when generating
         }
-        catch (NoSuchMethodException e) {
-            throw new X3MLEngine.X3MLException("Custom generator missing default constructor: " + className);
+    }
+
+    private static RuntimeException customFailure(String className, Exception e) {
+        if (e instanceof InvocationTargetException || e instanceof InstantiationException || e instanceof IllegalAccessException) {
+            return new X3MLEngine.X3MLException("Custom generator unable to instantiate: " + className, e);
+        }
+        if (e instanceof ClassCastException) {
+            return new X3MLEngine.X3MLException("Custom generator must implement CustomGenerator: " + className, e);
         }
-        catch (InvocationTargetException e) {
-            throw new X3MLEngine.X3MLException("Custom generator unable to instantiate: " + className, e);
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
         }
-        catch (InstantiationException e) {
-            throw new X3MLEngine.X3MLException("Custom generator unable to instantiate: " + className, e);
+        return new X3MLEngine.X3MLException("Custom generator failure: " + className, e);
+    }
+
+    private class BlockingGenerator implements CustomGenerator {
+        private final AsyncCustomGenerator async;
+
+        private BlockingGenerator(AsyncCustomGenerator async) {
+            this.async = async;
+        }
+
+        @Override
+        public void setArg(String name, String value) throws CustomGeneratorException {
+            async.setArg(name, value);
+        }
+
+        @Override
+        public String getValue() throws CustomGeneratorException {
+            return awaitLookup(async.requestValue());
         }
-        catch (IllegalAccessException e) {
-            throw new X3MLEngine.X3MLException("Custom generator unable to instantiate: " + className, e);
+
+        @Override
+        public String getValueType() throws CustomGeneratorException {
+            return async.getValueType();
         }
-        catch (ClassCastException e) {
-            throw new X3MLEngine.X3MLException("Custom generator must implement CustomGenerator: " + className, e);
+    }
+
+    private static UriTemplate uriTemplate(GeneratorSpec generator) {
+        try {
+            return UriTemplate.fromTemplate(generator.pattern);
         }
-        catch (CustomGeneratorException e) {
-            throw new X3MLEngine.X3MLException("Custom generator failure: " + className, e);
+        catch (MalformedUriTemplateException e) {
+            throw exception("Malformed", e);
         }
     }
 
-    private GeneratedValue fromURITemplate(GeneratorSpec generator, String namespaceUri, ArgValues argValues) {
+    private GeneratedValue fromURITemplate(GeneratorSpec generator, String namespaceUri, UriTemplate uriTemplate, List<String> variables, ArgValues argValues) {
         try {
-            UriTemplate uriTemplate = UriTemplate.fromTemplate(generator.pattern);
-            for (String argument : getVariables(generator.pattern)) {
+            for (String argument : variables) {
                 ArgValue argValue = argValues.getArgValue(argument, defaultSourceType);
                 if (argValue == null || argValue.string == null) {
                     throw exception(String.format(
@@ -217,18 +593,15 @@ public class X3MLGeneratorPolicy implements Generator {
             }
             return uriValue(namespaceUri + uriTemplate.expand());
         }
-        catch (MalformedUriTemplateException e) {
-            throw exception("Malformed", e);
-        }
         catch (VariableExpansionException e) {
             throw exception("Variable", e);
         }
     }
 
-    private GeneratedValue fromSimpleTemplate(GeneratorSpec generator, ArgValues argValues) {
+    private GeneratedValue fromSimpleTemplate(GeneratorSpec generator, List<String> variables, ArgValues argValues) {
         String result = generator.pattern;
         String language = null;
-        for (String argument : getVariables(generator.pattern)) {
+        for (String argument : variables) {
             ArgValue argValue = argValues.getArgValue(argument, defaultSourceType);
             if (argValue == null || argValue.string == null) {
                 throw exception(String.format(
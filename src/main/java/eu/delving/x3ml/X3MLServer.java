@@ -0,0 +1,503 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import eu.delving.x3ml.engine.Diagnostics;
+import eu.delving.x3ml.engine.SourceParser;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+import static eu.delving.x3ml.engine.X3ML.GeneratorPolicy;
+import static eu.delving.x3ml.engine.X3ML.Helper.generatorStream;
+
+/**
+ * Keeps mappings and policies loaded between requests, for editors and
+ * ingestion services which would otherwise start the command line for every
+ * record. It only listens on the loopback interface.
+ * <p/>
+ * POST /mapping and POST /policy take the XML in the body and answer with
+ * the SHA-1 under which it is kept, loading it only if it is new. Then
+ * POST /map?mapping=HASH&amp;policy=HASH&amp;format=FORMAT takes the source
+ * XML in the body and answers with the RDF. Parameter uuidTestSize gives
+ * test UUIDs, and project=true parses only what the mapping refers to.
+ * GET /status gives the counts.
+ * <p/>
+ * Since any web page can post to the loopback interface, requests must have
+ * a local Host and Origin, and bodies must be sent as application/xml, which
+ * a page cannot do without the browser asking first. The mappings and
+ * policies may only name classes of the X3ML model.
+ * <p/>
+ * With a name, as in POST /mapping?name=NAME or POST /policy?name=NAME, the
+ * mapping is a {@link ReloadableMapping} which is replaced for requests to
+ * /map?name=NAME arriving after the new one is loaded, while those already
+ * running finish with the old one. Without mapping or name, /map uses the
+ * one named "default".
+ * <p/>
+ * Requests are taken by a bounded pool with a bounded queue, and mapping is
+ * done by a fixed number of workers with a bounded queue. A request which
+ * finds either queue full gets 503, and one taking longer than the timeout
+ * since it arrived gets 504, with its mapping interrupted. The events the
+ * engine counted while mapping are in the X-Diagnostics header.
+ */
+
+public class X3MLServer {
+    public static final int REGISTRY_SIZE = 64;
+    private static final Logger LOG = Logger.getLogger(X3MLServer.class);
+    private static final ThreadLocal<Long> ARRIVED = new ThreadLocal<Long>();
+    private static final ThreadLocal<Boolean> SHED = new ThreadLocal<Boolean>();
+    private final HttpServer server;
+    private final ThreadPoolExecutor exchanges;
+    private final ExecutorService overflow;
+    private final ThreadPoolExecutor workers;
+    private final long timeoutMillis;
+    private final Registry<X3MLEngine> engines = new Registry<X3MLEngine>();
+    private final Registry<GeneratorPolicy> policies = new Registry<GeneratorPolicy>();
+    private final Map<String, ReloadableMapping> named = new ConcurrentHashMap<String, ReloadableMapping>();
+    private final AtomicLong mapped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private volatile GeneratorCache cache;
+
+    /**
+     * @param port where to listen on the loopback interface, zero for any free port
+     * @param threads how many mappings to run at once
+     * @param timeoutMillis how long a request may take
+     * @return the running server
+     */
+    public static X3MLServer start(int port, int threads, long timeoutMillis) throws IOException {
+        return new X3MLServer(port, threads, timeoutMillis);
+    }
+
+    private X3MLServer(int port, int threads, long timeoutMillis) throws IOException {
+        if (threads < 1 || timeoutMillis < 1) {
+            throw exception("Threads and timeout must be positive");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.workers = new ThreadPoolExecutor(
+                threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 2)
+        );
+        // more exchange threads than workers and their queue together, so the workers' queue can fill up
+        this.exchanges = new ThreadPoolExecutor(
+                threads * 4, threads * 4, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4)
+        );
+        this.overflow = Executors.newSingleThreadExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), port), 0);
+        server.createContext("/mapping", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters, byte[] body) throws IOException {
+                if (parameters.get("name") != null) {
+                    reload(exchange, parameters.get("name"), body, null);
+                    return;
+                }
+                String hash = NativeGenerators.sha1(body);
+                if (engines.get(hash) == null) {
+                    if ("true".equals(parameters.get("validate"))) {
+                        List<String> errors = X3MLEngine.validate(new ByteArrayInputStream(body));
+                        if (!errors.isEmpty()) {
+                            respond(exchange, 400, "Invalid:\n" + join(errors));
+                            return;
+                        }
+                    }
+                    engines.put(hash, X3MLEngine.load(new ByteArrayInputStream(body)));
+                }
+                respond(exchange, 200, hash);
+            }
+        });
+        server.createContext("/policy", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters, byte[] body) throws IOException {
+                if (parameters.get("name") != null) {
+                    reload(exchange, parameters.get("name"), null, body);
+                    return;
+                }
+                String hash = NativeGenerators.sha1(body);
+                if (policies.get(hash) == null) {
+                    GeneratorPolicy policy = (GeneratorPolicy) generatorStream().fromXML(new ByteArrayInputStream(body));
+                    X3MLGeneratorPolicy.create(policy, X3MLGeneratorPolicy.createUUIDSource(1)); // checks it
+                    policies.put(hash, policy);
+                }
+                respond(exchange, 200, hash);
+            }
+        });
+        server.createContext("/map", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters, byte[] body) throws IOException {
+                map(exchange, parameters, body);
+            }
+        });
+        server.createContext("/status", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters, byte[] body) throws IOException {
+                respond(exchange, 200, String.format(
+                        "named=%d mappings=%d policies=%d mapped=%d failed=%d rejected=%d timedOut=%d active=%d queued=%d",
+                        named.size(), engines.size(), policies.size(), mapped.get(), failed.get(), rejected.get(), timedOut.get(),
+                        workers.getActiveCount(), workers.getQueue().size()
+                ));
+            }
+        });
+        server.setExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable exchange) {
+                final long arrived = System.nanoTime();
+                try {
+                    exchanges.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            ARRIVED.set(arrived);
+                            try {
+                                exchange.run();
+                            }
+                            finally {
+                                ARRIVED.remove();
+                            }
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    // the server leaves the connection hanging when its executor refuses, so answer it quickly instead
+                    rejected.incrementAndGet();
+                    overflow.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            SHED.set(true);
+                            try {
+                                exchange.run();
+                            }
+                            finally {
+                                SHED.remove();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+        server.start();
+        LOG.info("Listening on " + server.getAddress());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param cache where custom generators remember their values, or null
+     */
+    public void setCache(GeneratorCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param mapping to be used for requests with its name
+     */
+    public void bind(ReloadableMapping mapping) {
+        named.put(mapping.getName(), mapping);
+    }
+
+    public void stop() {
+        server.stop(0);
+        exchanges.shutdownNow();
+        overflow.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void reload(HttpExchange exchange, String name, byte[] x3ml, byte[] policy) throws IOException {
+        ReloadableMapping mapping = named.get(name);
+        ReloadableMapping.Plan plan;
+        if (mapping == null) {
+            if (x3ml == null) {
+                respond(exchange, 404, "Post the mapping named " + name + " first");
+                return;
+            }
+            mapping = ReloadableMapping.load(name, x3ml, null);
+            bind(mapping);
+            plan = mapping.current();
+        }
+        else {
+            try {
+                plan = mapping.reload(x3ml, policy).get(); // only this exchange waits
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "Interrupted");
+                return;
+            }
+            catch (ExecutionException e) {
+                respond(exchange, 400, "Keeping " + mapping.current() + ": " + e.getCause().getMessage());
+                return;
+            }
+        }
+        respond(exchange, 200, name + " " + plan);
+    }
+
+    private void map(HttpExchange exchange, Map<String, String> parameters, byte[] body) throws IOException {
+        final X3MLEngine engine;
+        final GeneratorPolicy policy;
+        if (parameters.get("mapping") != null) {
+            engine = engines.get(parameters.get("mapping"));
+            if (engine == null) {
+                respond(exchange, 404, "Unknown mapping: " + parameters.get("mapping"));
+                return;
+            }
+            policy = policies.get(parameters.get("policy"));
+            if (parameters.get("policy") != null && policy == null) {
+                respond(exchange, 404, "Unknown policy: " + parameters.get("policy"));
+                return;
+            }
+        }
+        else {
+            String name = parameters.get("name") == null ? "default" : parameters.get("name");
+            ReloadableMapping mapping = named.get(name);
+            if (mapping == null) {
+                respond(exchange, 404, "Unknown mapping name: " + name);
+                return;
+            }
+            ReloadableMapping.Plan plan = mapping.current(); // this request keeps it to the end
+            exchange.getResponseHeaders().set("X-Mapping-Version", String.valueOf(plan.version));
+            engine = plan.engine;
+            policy = plan.policy;
+        }
+        String uuidTestSize = parameters.get("uuidTestSize");
+        final int uuidSize = uuidTestSize == null ? -1 : Integer.parseInt(uuidTestSize);
+        final boolean project = "true".equals(parameters.get("project"));
+        final byte[] source = body;
+        final Diagnostics.Counts events = new Diagnostics.Counts();
+        Future<X3MLEngine.Output> future;
+        try {
+            future = workers.submit(new Callable<X3MLEngine.Output>() {
+                @Override
+                public X3MLEngine.Output call() throws Exception {
+                    Diagnostics.openScope(events);
+                    try {
+                        Element root = project ?
+                                engine.getSourceProjection().parse(new ByteArrayInputStream(source)) :
+                                parse(source);
+                        X3MLGeneratorPolicy generatorPolicy = X3MLGeneratorPolicy.create(policy, X3MLGeneratorPolicy.createUUIDSource(uuidSize));
+                        generatorPolicy.setCache(cache);
+                        return engine.execute(root, generatorPolicy);
+                    }
+                    finally {
+                        Diagnostics.closeScope();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            respond(exchange, 503, "Too many requests");
+            return;
+        }
+        X3MLEngine.Output output;
+        try {
+            output = future.get(remainingMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.incrementAndGet();
+            respond(exchange, 504, "Mapping took longer than " + timeoutMillis + "ms");
+            return;
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Interrupted");
+            return;
+        }
+        catch (ExecutionException e) {
+            failed.incrementAndGet();
+            respond(exchange, 400, String.valueOf(e.getCause().getMessage()));
+            return;
+        }
+        String format = parameters.get("format");
+        exchange.getResponseHeaders().set("Content-Type", contentType(format));
+        exchange.getResponseHeaders().set("X-Diagnostics", events.toString());
+        exchange.sendResponseHeaders(200, 0);
+        PrintStream out = new PrintStream(exchange.getResponseBody(), false, "UTF-8");
+        output.write(out, format);
+        out.close();
+        mapped.incrementAndGet();
+    }
+
+    private long remainingMillis() {
+        Long arrived = ARRIVED.get();
+        if (arrived == null) {
+            return timeoutMillis;
+        }
+        return timeoutMillis - (System.nanoTime() - arrived) / 1000000;
+    }
+
+    private static Element parse(byte[] source) {
+        return SourceParser.parse(new ByteArrayInputStream(source));
+    }
+
+    private static String contentType(String format) {
+        if ("text/turtle".equals(format) || "application/n-triples".equals(format)) {
+            return format + "; charset=UTF-8";
+        }
+        return "application/rdf+xml; charset=UTF-8";
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder out = new StringBuilder();
+        for (String line : lines) {
+            out.append(line).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Web pages may send requests to the loopback interface too, so the Host
+     * and any Origin must name it, which also defeats DNS rebinding.
+     */
+    private static boolean isLocal(HttpExchange exchange) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null || !isLoopback(host)) {
+            return false;
+        }
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+        if (origin == null) {
+            return true;
+        }
+        int scheme = origin.indexOf("://");
+        return scheme > 0 && isLoopback(origin.substring(scheme + 3));
+    }
+
+    private static boolean isLoopback(String hostAndPort) {
+        String host = hostAndPort;
+        if (host.startsWith("[")) {
+            int close = host.indexOf(']');
+            host = close < 0 ? host : host.substring(0, close + 1);
+        }
+        else if (host.indexOf(':') >= 0) {
+            host = host.substring(0, host.indexOf(':'));
+        }
+        return "localhost".equalsIgnoreCase(host) || "127.0.0.1".equals(host) || "[::1]".equals(host);
+    }
+
+    private abstract static class Handler implements HttpHandler {
+
+        abstract void handle(HttpExchange exchange, Map<String, String> parameters, byte[] body) throws IOException;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (SHED.get() != null) {
+                    respond(exchange, 503, "Too many requests");
+                    return;
+                }
+                if (!isLocal(exchange)) {
+                    respond(exchange, 403, "Only for local clients");
+                    return;
+                }
+                boolean post = "POST".equals(exchange.getRequestMethod());
+                if (!post && !exchange.getHttpContext().getPath().equals("/status")) {
+                    respond(exchange, 405, "Use POST");
+                    return;
+                }
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                if (post && (contentType == null || !contentType.split(";")[0].trim().equalsIgnoreCase("application/xml"))) {
+                    respond(exchange, 415, "Use Content-Type application/xml");
+                    return;
+                }
+                byte[] body = post ? IOUtils.toByteArray(exchange.getRequestBody()) : new byte[0];
+                handle(exchange, parameters(exchange.getRequestURI().getRawQuery()), body);
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Request failed: " + exchange.getRequestURI(), e);
+                respond(exchange, 400, String.valueOf(e.getMessage()));
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private static class Registry<T> {
+        private final Map<String, T> map = new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > REGISTRY_SIZE;
+            }
+        };
+
+        synchronized T get(String hash) {
+            return hash == null ? null : map.get(hash);
+        }
+
+        synchronized void put(String hash, T value) {
+            map.put(hash, value);
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
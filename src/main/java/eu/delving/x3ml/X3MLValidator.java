@@ -0,0 +1,154 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+
+/**
+ * Validates X3ML against the XSD. The schema is compiled once, when it is
+ * first needed, and every thread gets its own validator from it, since the
+ * schema may be shared but validators may not.
+ */
+
+public class X3MLValidator {
+
+    private static final ThreadLocal<Validator> VALIDATOR = new ThreadLocal<Validator>() {
+        @Override
+        protected Validator initialValue() {
+            return schema().newValidator();
+        }
+    };
+
+    private static class SchemaHolder {
+        static final Schema SCHEMA = compile();
+
+        private static Schema compile() {
+            try {
+                return X3MLEngine.schemaFactory().newSchema(new StreamSource(X3MLEngine.inputStream("x3ml_v1.0.xsd")));
+            }
+            catch (SAXException e) {
+                throw exception("Unable to compile the X3ML schema", e);
+            }
+        }
+    }
+
+    public static Schema schema() {
+        return SchemaHolder.SCHEMA;
+    }
+
+    /**
+     * @param inputStream the X3ML
+     * @return the validation errors, empty when valid
+     */
+    public static List<String> validate(InputStream inputStream) throws SAXException, IOException {
+        Validator validator = VALIDATOR.get();
+        final List<String> errors = new ArrayList<String>();
+        validator.setErrorHandler(new ErrorHandler() {
+            @Override
+            public void warning(SAXParseException exception) throws SAXException {
+                errors.add(errorMessage(exception));
+            }
+
+            @Override
+            public void error(SAXParseException exception) throws SAXException {
+                errors.add(errorMessage(exception));
+            }
+
+            @Override
+            public void fatalError(SAXParseException exception) throws SAXException {
+                errors.add(errorMessage(exception));
+            }
+        });
+        try {
+            validator.validate(new StreamSource(inputStream));
+        }
+        finally {
+            validator.reset();
+        }
+        return errors;
+    }
+
+    /**
+     * Validate a number of X3ML files at the same time.
+     *
+     * @param files the X3ML files
+     * @param threads how many to validate at once
+     * @return the validation errors of each file, in the given order
+     */
+    public static Map<File, List<String>> validate(List<File> files, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+        try {
+            List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        InputStream inputStream = new FileInputStream(file);
+                        try {
+                            return validate(inputStream);
+                        }
+                        finally {
+                            inputStream.close();
+                        }
+                    }
+                }));
+            }
+            Map<File, List<String>> results = new LinkedHashMap<File, List<String>>();
+            for (int walk = 0; walk < files.size(); walk++) {
+                results.put(files.get(walk), futures.get(walk).get());
+            }
+            return results;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw exception("Interrupted while validating", e);
+        }
+        catch (ExecutionException e) {
+            throw exception("Unable to validate", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String errorMessage(SAXParseException e) {
+        return String.format(
+                "%d:%d - %s",
+                e.getLineNumber(), e.getColumnNumber(), e.getMessage()
+        );
+    }
+}
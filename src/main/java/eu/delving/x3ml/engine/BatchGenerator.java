@@ -0,0 +1,40 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import java.util.List;
+
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+
+/**
+ * A generator which can produce the values for many nodes in one call, so
+ * that it only has to look up and prepare the named generator once.
+ * <p/>
+ * The engine only asks for a batch when the generator declares the name to be
+ * batchable, which means that values do not depend on the order in which they
+ * are generated (so nothing is drawn from an ordered UUID source).
+ */
+public interface BatchGenerator extends Generator {
+
+    boolean isBatchable(String name);
+
+    /**
+     * @param name the generator name used in the X3ML
+     * @param argumentList one set of arguments per node
+     * @return one value per node, in the same order
+     */
+    List<GeneratedValue> generate(String name, List<ArgValues> argumentList);
+}
@@ -0,0 +1,228 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.NamespaceContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import static eu.delving.x3ml.engine.X3ML.Additional;
+import static eu.delving.x3ml.engine.X3ML.EntityElement;
+import static eu.delving.x3ml.engine.X3ML.LinkElement;
+import static eu.delving.x3ml.engine.X3ML.Mapping;
+import static eu.delving.x3ml.engine.X3ML.RootElement;
+import static eu.delving.x3ml.engine.X3ML.TargetRelation;
+import static eu.delving.x3ml.engine.XPathStats.Site;
+
+/**
+ * A dry run of a mapping over a source which only evaluates the domain
+ * source nodes, the path relations and the join keys, to estimate how many
+ * contexts each mapping and link will make, how many ranges one domain node
+ * can fan out to, and how many triples will come of it, before running the
+ * real thing. No generators run and no output is built.
+ * <p/>
+ * Conditions are not evaluated and every entity is taken to be a resource
+ * with all of its types, labels and additionals, so the triples are an
+ * upper bound. With a sample, only that many domain nodes per mapping are
+ * followed, evenly spread, and their links are scaled up to all of them.
+ */
+
+public class Cardinality {
+    public static final int FAN_OUT_WARNING = 1000;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final XPathInput input;
+    private final Node rootNode;
+    private final int sample;
+
+    public static class Entry {
+        public final String where;
+        public long contexts, ranges, maxFanOut, triples;
+        public boolean sampled;
+
+        private Entry(String where) {
+            this.where = where;
+        }
+
+        public double getMeanFanOut() {
+            return contexts == 0 ? 0 : ranges / (double) contexts;
+        }
+
+        public boolean isSuspicious() {
+            return maxFanOut >= FAN_OUT_WARNING;
+        }
+    }
+
+    /**
+     * @param rootElement the mapping
+     * @param sourceRoot the source
+     * @param namespaceContext of the mapping
+     * @param sample how many domain nodes per mapping to follow, 0 for all
+     * @return the estimate
+     */
+    public static Cardinality estimate(RootElement rootElement, Element sourceRoot, NamespaceContext namespaceContext, int sample) {
+        Cardinality cardinality = new Cardinality(sourceRoot, namespaceContext, rootElement.language, sample);
+        if (rootElement.mappings != null) {
+            for (Mapping mapping : rootElement.mappings) {
+                cardinality.mapping(mapping);
+            }
+        }
+        return cardinality;
+    }
+
+    private Cardinality(Element sourceRoot, NamespaceContext namespaceContext, String language, int sample) {
+        this.rootNode = sourceRoot;
+        this.input = new XPathInput(sourceRoot, namespaceContext, language);
+        this.sample = sample;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public long getTriples() {
+        long triples = 0;
+        for (Entry entry : entries) {
+            triples += entry.triples;
+        }
+        return triples;
+    }
+
+    public String toTable() {
+        StringBuilder out = new StringBuilder(String.format(
+                "%-24s %10s %10s %10s %10s %12s%n",
+                "where", "contexts", "ranges", "mean fan", "max fan", "triples"
+        ));
+        for (Entry entry : entries) {
+            out.append(String.format(
+                    "%-24s %10d %10d %10.1f %10d %12d%s%n",
+                    entry.where, entry.contexts, entry.ranges, entry.getMeanFanOut(), entry.maxFanOut, entry.triples,
+                    entry.isSuspicious() ? "  cross product?" : entry.sampled ? "  (sampled)" : ""
+            ));
+        }
+        out.append(String.format("%-24s %56d%n", "at most", getTriples()));
+        return out.toString();
+    }
+
+    private void mapping(Mapping mapping) {
+        Entry entry = new Entry(mapping.where);
+        entries.add(entry);
+        List<Node> domainNodes = input.nodeList(Site.DOMAIN, rootNode, mapping.domain.source_node);
+        entry.contexts = domainNodes.size();
+        entry.triples = entry.contexts * entityTriples(mapping.domain.target_node.entityElement);
+        if (mapping.links == null || domainNodes.isEmpty()) {
+            return;
+        }
+        List<Node> followed = domainNodes;
+        if (sample > 0 && domainNodes.size() > sample) {
+            followed = new ArrayList<Node>(sample);
+            for (int walk = 0; walk < sample; walk++) {
+                followed.add(domainNodes.get((int) ((long) walk * domainNodes.size() / sample)));
+            }
+            entry.sampled = true;
+        }
+        double scale = domainNodes.size() / (double) followed.size();
+        for (LinkElement link : mapping.links) {
+            Entry linkEntry = new Entry(link.where);
+            linkEntry.sampled = entry.sampled;
+            entries.add(linkEntry);
+            for (Node domainNode : followed) {
+                link(link, mapping, domainNode, linkEntry);
+            }
+            linkEntry.contexts = Math.round(linkEntry.contexts * scale);
+            linkEntry.ranges = Math.round(linkEntry.ranges * scale);
+            linkEntry.triples = linkEntry.ranges * pathTriples(link);
+        }
+    }
+
+    private void link(LinkElement link, Mapping mapping, Node domainNode, Entry entry) {
+        String pathSource = link.path.source_relation.relation.expression;
+        long ranges = 0;
+        if (link.path.source_relation.node != null && pathSource.contains("==")) { // as in LinkElement.link
+            String domainForeignKey = pathSource.trim();
+            String rangePrimaryKey = link.path.source_relation.relation2.expression.trim();
+            String intermediateFirst = domainForeignKey.substring(domainForeignKey.indexOf("==") + 2).trim();
+            String intermediateSecond = rangePrimaryKey.substring(0, rangePrimaryKey.indexOf("==")).trim();
+            domainForeignKey = domainForeignKey.substring(0, domainForeignKey.indexOf("==")).trim();
+            rangePrimaryKey = rangePrimaryKey.substring(rangePrimaryKey.indexOf("==") + 2).trim();
+            String inside = link.path.source_relation.node.expression;
+            String domainKey = input.valueAt(Site.JOIN_KEY, domainNode, domainForeignKey + "/text()");
+            int size = input.countNodes(Site.JOIN_KEY, domainNode.getParentNode(), inside + "//" + intermediateFirst + "/text()");
+            for (int count = 1; count <= size; count++) {
+                if (input.valueAt(Site.JOIN_KEY, domainNode.getParentNode(), inside + "[" + count + "]//" + intermediateFirst + "/text()").equals(domainKey)) {
+                    entry.contexts++;
+                    ranges += count(input.rootNodeList(
+                            mapping.domain.source_node.expression, pathSource,
+                            input.valueAt(Site.JOIN_KEY, domainNode, inside + "[" + count + "]//" + intermediateSecond + "/text()"),
+                            link.range.source_node.expression, rangePrimaryKey + "/text()"
+                    ));
+                }
+            }
+        }
+        else if (link.path.source_relation.node == null && pathSource.contains("==")) {
+            int equals = pathSource.indexOf("==");
+            entry.contexts++;
+            ranges = count(input.rootNodeList(
+                    mapping.domain.source_node.expression, pathSource,
+                    input.valueAt(Site.JOIN_KEY, domainNode, pathSource.substring(0, equals).trim() + "/text()"),
+                    link.range.source_node.expression, pathSource.substring(equals + 2).trim() + "/text()"
+            ));
+        }
+        else {
+            String rangeExpression = link.range.source_node.expression.equals(pathSource) ? "" : pathSource; // as in Path
+            for (Node pathNode : input.nodeList(Site.PATH, domainNode, link.path.source_relation.relation)) {
+                entry.contexts++;
+                ranges += input.countNodes(Site.RANGE, pathNode, rangeExpression);
+            }
+        }
+        entry.ranges += ranges;
+        entry.maxFanOut = Math.max(entry.maxFanOut, ranges);
+    }
+
+    private static long count(List<Node> nodes) {
+        return nodes == null ? 0 : nodes.size();
+    }
+
+    private static int pathTriples(LinkElement link) {
+        TargetRelation relation = link.path.target_relation;
+        int triples = relation.properties == null ? 1 : relation.properties.size();
+        if (relation.entities != null) {
+            for (EntityElement entity : relation.entities) {
+                triples += entityTriples(entity);
+            }
+        }
+        return triples + entityTriples(link.range.target_node.entityElement);
+    }
+
+    private static int entityTriples(EntityElement entity) {
+        if (entity == null) {
+            return 0;
+        }
+        int triples = size(entity.typeElements) + size(entity.labelGenerators);
+        if (entity.additionals != null) {
+            for (Additional additional : entity.additionals) {
+                triples += 1 + entityTriples(additional.entityElement);
+            }
+        }
+        return triples;
+    }
+
+    private static int size(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
+}
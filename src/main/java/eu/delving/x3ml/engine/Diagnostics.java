@@ -0,0 +1,183 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the engine has to say while mapping goes to log4j, under the category
+ * "eu.delving.x3ml".
+ * <p/>
+ * Things which can happen for every record are events. They are always
+ * counted, but only the first few of each and then one in a thousand are
+ * logged, and the counts can be logged as a summary at the end of a run.
+ * A thread which opens a scope, like a server request, counts and samples
+ * its events in the scope until it closes it, and not in the totals.
+ * <p/>
+ * Traces are debug level, also enabled with -Dx3ml.trace=true. Their details
+ * are usually mapping elements, only turned into text when actually logged.
+ */
+public class Diagnostics {
+    public static final int LOG_FIRST = 10;
+    public static final int LOG_EVERY = 1000;
+    private static final Logger LOG = Logger.getLogger("eu.delving.x3ml");
+    private static final Counts TOTAL = new Counts();
+    private static final ThreadLocal<Counts> SCOPE = new ThreadLocal<Counts>();
+
+    public enum Event {
+        UNRESOLVED_DOMAIN(Level.INFO, "Unresolved domain"),
+        NO_RESOURCES(Level.WARN, "No resources to link"),
+        DATE(Level.DEBUG, "Date"),
+        UNKNOWN_DATE(Level.INFO, "Date not understood"),
+        SKIPPED_ENTITY(Level.INFO, "External entity skipped");
+
+        private final Level level;
+        private final String description;
+
+        Event(Level level, String description) {
+            this.level = level;
+            this.description = description;
+        }
+    }
+
+    public static class Counts {
+        private final AtomicLong[] counts = new AtomicLong[Event.values().length];
+
+        public Counts() {
+            for (int walk = 0; walk < counts.length; walk++) {
+                counts[walk] = new AtomicLong();
+            }
+        }
+
+        public long get(Event event) {
+            return counts[event.ordinal()].get();
+        }
+
+        /**
+         * @return the events that happened, with their counts
+         */
+        public Map<Event, Long> toMap() {
+            Map<Event, Long> map = new LinkedHashMap<Event, Long>();
+            for (Event event : Event.values()) {
+                long count = get(event);
+                if (count > 0) {
+                    map.put(event, count);
+                }
+            }
+            return map;
+        }
+
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            for (Map.Entry<Event, Long> entry : toMap().entrySet()) {
+                if (out.length() > 0) {
+                    out.append(' ');
+                }
+                out.append(entry.getKey().description).append('=').append(entry.getValue()).append(';');
+            }
+            return out.toString();
+        }
+    }
+
+    static {
+        if (Boolean.getBoolean("x3ml.trace")) {
+            setTracing(true);
+        }
+    }
+
+    public static boolean isTracing() {
+        return LOG.isDebugEnabled();
+    }
+
+    public static void setTracing(boolean tracing) {
+        LOG.setLevel(tracing ? Level.DEBUG : null);
+    }
+
+    /**
+     * @param where which element of the mapping, like "mapping 2 link 1"
+     * @param label what is being traced
+     * @param detail rendered with toString only when tracing
+     */
+    public static void trace(String where, String label, Object detail) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(where + ": " + label + " " + detail);
+        }
+    }
+
+    /**
+     * Count an event and log it if it is one of the sampled ones.
+     *
+     * @param event what happened
+     * @param detail rendered with toString only when logged
+     */
+    public static void note(Event event, Object detail) {
+        long count = current().counts[event.ordinal()].incrementAndGet();
+        if ((count <= LOG_FIRST || count % LOG_EVERY == 0) && LOG.isEnabledFor(event.level)) {
+            LOG.log(event.level, event.description + " #" + count + ": " + detail);
+        }
+    }
+
+    public static void count(Event event) {
+        current().counts[event.ordinal()].incrementAndGet();
+    }
+
+    public static long getCount(Event event) {
+        return current().get(event);
+    }
+
+    /**
+     * @return the events that happened in the scope of this thread, or in total, with their counts
+     */
+    public static Map<Event, Long> getCounts() {
+        return current().toMap();
+    }
+
+    /**
+     * Count the events of this thread apart, until the scope is closed.
+     *
+     * @param counts where the events of the scope go
+     */
+    public static void openScope(Counts counts) {
+        SCOPE.set(counts);
+    }
+
+    public static void closeScope() {
+        SCOPE.remove();
+    }
+
+    public static void logSummary() {
+        Counts counts = current();
+        if (!counts.toMap().isEmpty() && LOG.isInfoEnabled()) {
+            LOG.info("Summary: " + counts);
+        }
+    }
+
+    public static void resetCounts() {
+        for (AtomicLong count : current().counts) {
+            count.set(0);
+        }
+    }
+
+    private static Counts current() {
+        Counts scope = SCOPE.get();
+        return scope == null ? TOTAL : scope;
+    }
+}
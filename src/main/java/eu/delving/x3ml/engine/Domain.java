@@ -28,6 +28,8 @@ import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
 import static eu.delving.x3ml.engine.X3ML.LinkElement;
 import static eu.delving.x3ml.engine.X3ML.PathElement;
 import static eu.delving.x3ml.engine.X3ML.RangeElement;
+import static eu.delving.x3ml.engine.XPathStats.Site.JOIN_KEY;
+import static eu.delving.x3ml.engine.XPathStats.Site.PATH;
 
 /**
  * The domain entity handled here. Resolution delegated. Holding variables here.
@@ -52,7 +54,9 @@ public class Domain extends GeneratorContext {
 
     @Override
     public void put(String variable, GeneratedValue generatedValue) {
-        variables.put(variable, generatedValue);
+        if (variables.put(variable, generatedValue) == null && context.memory() != null) {
+            context.memory().add(MemoryReport.Structure.VARIABLES, 1, generatedValue.text.length());
+        }
     }
 
     public boolean resolve() {
@@ -68,7 +72,7 @@ public class Domain extends GeneratorContext {
 
         PathElement pathElement = linkElement.path;
 
-        System.out.println("Node Inside" + node_inside);
+        Diagnostics.trace(linkElement.where, "node inside", node_inside);
 
         String pathExpression = pathElement.source_relation.relation.expression;
 
@@ -77,25 +81,25 @@ public class Domain extends GeneratorContext {
         String rangeExpression = rangeElement.source_node.expression;
 
         if (rangeExpression == null) {
-            throw exception("Range source absent: " + linkElement);
+            throw exception("Range source absent in " + linkElement.where, linkElement);
         }
         List<Link> links = new ArrayList<Link>();
         int index = 1;
         int index1 = 1;
         int index2 = 1;
 
-        int size = context.input().countNodes(node.getParentNode(), node_inside + "//" + intermediateFirst + "/text()");
+        int size = context.input().countNodes(JOIN_KEY, node.getParentNode(), node_inside + "//" + intermediateFirst + "/text()");
 
         for (int count = 1; count <= size; count++) {
 
-            if (context.input().valueAt(node.getParentNode(),
+            if (context.input().valueAt(JOIN_KEY, node.getParentNode(),
                     node_inside + "[" + count + "]//" + intermediateFirst + "/text()")
-                    .equals(context.input().valueAt(node, domainForeignKey + "/text()"))) {
+                    .equals(context.input().valueAt(JOIN_KEY, node, domainForeignKey + "/text()"))) {
 
                 List<Node> rangeNodes = context.input().rootNodeList(
                         domain.source_node.expression,
                         pathExpression,
-                        context.input().valueAt(node, node_inside + "[" + count + "]//" + intermediateSecond + "/text()"),
+                        context.input().valueAt(JOIN_KEY, node, node_inside + "[" + count + "]//" + intermediateSecond + "/text()"),
                         rangeExpression,
                         rangePrimaryKey + "/text()"
                 );
@@ -127,14 +131,14 @@ public class Domain extends GeneratorContext {
         RangeElement rangeElement = linkElement.range;
         String rangeExpression = rangeElement.source_node.expression;
         if (rangeExpression == null) {
-            throw exception("Range source absent: " + linkElement);
+            throw exception("Range source absent in " + linkElement.where, linkElement);
         }
         List<Link> links = new ArrayList<Link>();
         int index = 1;
         List<Node> rangeNodes = context.input().rootNodeList(
                 domain.source_node.expression,
                 pathExpression,
-                context.input().valueAt(node, domainForeignKey + "/text()"),
+                context.input().valueAt(JOIN_KEY, node, domainForeignKey + "/text()"),
                 rangeExpression,
                 rangePrimaryKey + "/text()"
         );
@@ -156,7 +160,7 @@ public class Domain extends GeneratorContext {
         }
         List<Path> paths = new ArrayList<Path>();
         int index = 1;
-        for (Node pathNode : context.input().nodeList(node, path.source_relation.relation)) {
+        for (Node pathNode : context.input().nodeList(PATH, node, path.source_relation.relation)) {
             Path pathContext = new Path(context, this, path, pathNode, index++);
             if (pathContext.resolve()) {
                 paths.add(pathContext);
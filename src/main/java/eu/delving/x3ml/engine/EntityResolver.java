@@ -18,7 +18,6 @@ package eu.delving.x3ml.engine;
 import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.Resource;
-import eu.delving.x3ml.X3MLEngine;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -62,11 +61,7 @@ public class EntityResolver {
             return false;
         }
         if (resources == null) {
-            StringBuilder unique = new StringBuilder();
-            for (TypeElement typeElement : entityElement.typeElements) {
-                unique.append('-').append(typeElement.tag);
-            }
-            GeneratedValue generatedValue = entityElement.getInstance(generatorContext, unique.toString());
+            GeneratedValue generatedValue = entityElement.getInstance(generatorContext, unique(entityElement));
             if (generatedValue == null) {
                 failed = true;
                 return false;
@@ -87,7 +82,7 @@ public class EntityResolver {
                     break;
                 case TYPED_LITERAL:
                     if (entityElement.typeElements.size() != 1) {
-                        throw new X3MLEngine.X3MLException("Expected one type in\n" + entityElement);
+                        throw exception("Expected one type in entity", entityElement);
                     }
                     TypeElement typeElement = entityElement.typeElements.get(0);
                     literal = modelOutput.createTypedLiteral(generatedValue.text, typeElement);
@@ -99,6 +94,14 @@ public class EntityResolver {
         return hasResources() || hasLiteral();
     }
 
+    static String unique(X3ML.EntityElement entityElement) {
+        StringBuilder unique = new StringBuilder();
+        for (TypeElement typeElement : entityElement.typeElements) {
+            unique.append('-').append(typeElement.tag);
+        }
+        return unique.toString();
+    }
+
     boolean hasResources() {
         return resources != null && !resources.isEmpty();
     }
@@ -109,7 +112,7 @@ public class EntityResolver {
 
     void link() {
         if (resources == null) {
-            System.out.println("No resources!");
+            Diagnostics.note(Diagnostics.Event.NO_RESOURCES, generatorContext);
             return;
         }
         for (Resource resource : resources) {
@@ -0,0 +1,164 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder events of the mapping stages. This is the only class
+ * referring to jdk.jfr, and Stages only loads it when that API is present.
+ * <p/>
+ * Generator events come one per value, so they are disabled unless the
+ * settings enable them, as x3ml.jfc does.
+ */
+
+class FlightRecorderStages implements Stages.Recorder {
+
+    @Override
+    public Object begin(Stages.Stage stage) {
+        StageEvent event;
+        switch (stage) {
+            case PARSE:
+                event = new ParseEvent();
+                break;
+            case DOMAIN:
+                event = new DomainEvent();
+                break;
+            case LINK:
+                event = new LinkEvent();
+                break;
+            case GENERATOR:
+                event = new GeneratorEvent();
+                break;
+            default:
+                event = new FlushEvent();
+                break;
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void end(Object span, String name, long count) {
+        StageEvent event = (StageEvent) span;
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(name, count);
+            event.commit();
+        }
+    }
+
+    abstract static class StageEvent extends Event {
+        abstract void set(String name, long count);
+    }
+
+    @Name("eu.delving.x3ml.Parse")
+    @Label("Parse Source")
+    @Category("X3ML")
+    @Description("Parsing a source record into a DOM, or a projection of it with SAX")
+    @StackTrace(false)
+    static class ParseEvent extends StageEvent {
+        @Label("Parser")
+        String parser;
+
+        @Override
+        void set(String name, long count) {
+            parser = name;
+        }
+    }
+
+    @Name("eu.delving.x3ml.Domain")
+    @Label("Resolve Domains")
+    @Category("X3ML")
+    @Description("Finding and resolving the domain nodes of one mapping")
+    @StackTrace(false)
+    static class DomainEvent extends StageEvent {
+        @Label("Mapping")
+        String mapping;
+
+        @Label("Domains")
+        long domains;
+
+        @Override
+        void set(String name, long count) {
+            mapping = name;
+            domains = count;
+        }
+    }
+
+    @Name("eu.delving.x3ml.Link")
+    @Label("Link")
+    @Category("X3ML")
+    @Description("Applying one link to one domain: its paths, ranges and their triples")
+    @StackTrace(false)
+    static class LinkEvent extends StageEvent {
+        @Label("Link")
+        String link;
+
+        @Override
+        void set(String name, long count) {
+            link = name;
+        }
+    }
+
+    @Name("eu.delving.x3ml.Generator")
+    @Label("Generate")
+    @Category("X3ML")
+    @Description("Generating values with one generator of the policy")
+    @StackTrace(false)
+    @Enabled(false)
+    static class GeneratorEvent extends StageEvent {
+        @Label("Generator")
+        String generator;
+
+        @Label("Values")
+        long values;
+
+        @Override
+        void set(String name, long count) {
+            generator = name;
+            values = count;
+        }
+    }
+
+    @Name("eu.delving.x3ml.Flush")
+    @Label("Write Output")
+    @Category("X3ML")
+    @Description("Writing the output model")
+    @StackTrace(false)
+    static class FlushEvent extends StageEvent {
+        @Label("Format")
+        String format;
+
+        @Label("Triples")
+        long triples;
+
+        @Override
+        void set(String name, long count) {
+            format = name;
+            triples = count;
+        }
+    }
+}
@@ -36,6 +36,9 @@ public abstract class GeneratorContext {
     public final GeneratorContext parent;
     public final Node node;
     public final int index;
+    private String nodePath;
+    private String prefetchedUnique;
+    private GeneratedValue prefetched;
 
     protected GeneratorContext(Root.Context context, GeneratorContext parent, Node node, int index) {
         this.context = context;
@@ -59,7 +62,7 @@ public abstract class GeneratorContext {
     }
 
     public String evaluate(String expression) {
-        return context.input().valueAt(node, expression);
+        return context.input().valueAt(XPathStats.Site.CONDITION, node, expression);
     }
 
     public GeneratedValue getInstance(final GeneratorElement generator, String variable, String unique) {
@@ -76,6 +79,7 @@ public abstract class GeneratorContext {
                         return context.input().evaluateArgument(node, index, generator, name, sourceType);
                     }
                 });
+                generated(1);
                 put(variable, generatedValue);
 //                System.out.println(generator.variable + " ===VAR==> " + generatedValue);
             }
@@ -83,15 +87,22 @@ public abstract class GeneratorContext {
 //                System.out.println(generator.variable + " <==VAR=== " + generatedValue);
 //            }
         } else {
-            String nodeName = extractXPath(node) + unique;
+            String nodeName = nodePath() + unique;
             generatedValue = context.getGeneratedValue(nodeName);
             if (generatedValue == null) {
-                generatedValue = context.policy().generate(generator.name, new Generator.ArgValues() {
-                    @Override
-                    public ArgValue getArgValue(String name, SourceType sourceType) {
-                        return context.input().evaluateArgument(node, index, generator, name, sourceType);
-                    }
-                });
+                if (prefetched != null && unique.equals(prefetchedUnique)) {
+                    generatedValue = prefetched;
+                    prefetched = null;
+                }
+                else {
+                    generatedValue = context.policy().generate(generator.name, new Generator.ArgValues() {
+                        @Override
+                        public ArgValue getArgValue(String name, SourceType sourceType) {
+                            return context.input().evaluateArgument(node, index, generator, name, sourceType);
+                        }
+                    });
+                    generated(1);
+                }
                 context.putGeneratedValue(nodeName, generatedValue);
 //                System.out.println(nodeName + " ===CTX==> " + generatedValue);
             }
@@ -105,12 +116,34 @@ public abstract class GeneratorContext {
         return generatedValue;
     }
 
+    void generated(int calls) {
+        if (context.profile() != null) {
+            context.profile().generated(calls);
+        }
+    }
+
+    /**
+     * Hand over an instance which was generated for this context as part of a
+     * batch, to be used by the next getInstance with the same unique suffix.
+     */
+    void prefetch(String unique, GeneratedValue generatedValue) {
+        this.prefetchedUnique = unique;
+        this.prefetched = generatedValue;
+    }
+
+    String nodePath() {
+        if (nodePath == null) {
+            nodePath = extractXPath(node);
+        }
+        return nodePath;
+    }
+
     public boolean conditionFails(Condition condition, GeneratorContext context) {
         return condition != null && condition.failure(context);
     }
 
     public String toString() {
-        return extractXPath(node);
+        return nodePath();
     }
 
     public static String extractXPath(Node node) {
@@ -0,0 +1,115 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+
+/**
+ * Resolves the external DTDs and schemas which source records refer to from
+ * local files, so that parsing never goes to the network.
+ * <p/>
+ * A catalog directory may hold a catalog.properties which maps public or
+ * system identifiers to file names in the directory, and otherwise a file is
+ * found in the directory by the last part of its system identifier. Anything
+ * else resolves to nothing, so it is skipped, and is counted. The DTDs and
+ * schemas bundled with the engine are those of the mapping language, so
+ * they are never used for sources, even when the names are the same.
+ */
+
+public class InputCatalog implements org.xml.sax.EntityResolver {
+    public static final String PROPERTIES = "catalog.properties";
+    private final File directory;
+    private final Map<String, File> entries = new HashMap<String, File>();
+
+    /**
+     * @return the catalog in the directory given by -Dx3ml.catalog, or an empty one
+     */
+    public static InputCatalog fromSystemProperty() {
+        String directory = System.getProperty("x3ml.catalog");
+        return directory == null ? new InputCatalog(null) : of(new File(directory));
+    }
+
+    public static InputCatalog of(File directory) {
+        if (!directory.isDirectory()) {
+            throw exception("Catalog is not a directory: " + directory);
+        }
+        InputCatalog catalog = new InputCatalog(directory);
+        File propertiesFile = new File(directory, PROPERTIES);
+        if (propertiesFile.exists()) {
+            Properties properties = new Properties();
+            try {
+                InputStream in = new FileInputStream(propertiesFile);
+                try {
+                    properties.load(in);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                throw exception("Unable to read " + propertiesFile, e);
+            }
+            for (String id : properties.stringPropertyNames()) {
+                catalog.entries.put(id, new File(directory, properties.getProperty(id).trim()));
+            }
+        }
+        return catalog;
+    }
+
+    private InputCatalog(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId) {
+        File file = publicId == null ? null : entries.get(publicId);
+        if (file == null && systemId != null) {
+            file = entries.get(systemId);
+        }
+        String fileName = systemId == null ? null : systemId.substring(systemId.lastIndexOf('/') + 1);
+        if (file == null && directory != null && fileName != null && !fileName.isEmpty()) {
+            file = new File(directory, fileName);
+        }
+        if (file != null && file.isFile()) {
+            try {
+                InputSource source = new InputSource(new FileInputStream(file));
+                source.setPublicId(publicId);
+                source.setSystemId(file.toURI().toString());
+                return source;
+            }
+            catch (FileNotFoundException e) {
+                throw exception("Unable to read " + file, e);
+            }
+        }
+        Diagnostics.note(Diagnostics.Event.SKIPPED_ENTITY, systemId);
+        InputSource nothing = new InputSource(new StringReader(""));
+        nothing.setPublicId(publicId);
+        nothing.setSystemId(systemId);
+        return nothing;
+    }
+}
@@ -0,0 +1,143 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+import static eu.delving.x3ml.engine.X3ML.ArgValue;
+import static eu.delving.x3ml.engine.X3ML.EntityElement;
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+import static eu.delving.x3ml.engine.X3ML.GeneratorElement;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static eu.delving.x3ml.engine.X3ML.TargetNode;
+
+/**
+ * Generates the instances of one entity element for all of the contexts that
+ * a domain or a path produced, before they are resolved one by one.
+ * <p/>
+ * Arguments are evaluated a column at a time, when the generator first asks
+ * for them, and a failure is kept with its node so that it surfaces exactly
+ * where it would have without the batch. The values end up in the contexts,
+ * where getInstance picks them up.
+ */
+class InstanceBatch {
+    private final XPathInput input;
+    private final GeneratorElement generatorElement;
+    private final List<GeneratorContext> contexts;
+    private final Map<String, Column> columns = new HashMap<String, Column>();
+
+    static void prefetch(List<? extends GeneratorContext> contexts, TargetNode targetNode) {
+        if (contexts.size() < 2 || targetNode == null || targetNode.condition != null) {
+            return; // conditions are checked during resolve, and instances must not be made for failures
+        }
+        EntityElement entityElement = targetNode.entityElement;
+        if (entityElement == null || entityElement.variable != null || entityElement.instanceGenerator == null) {
+            return;
+        }
+        Root.Context context = contexts.get(0).context;
+        if (!(context.policy() instanceof BatchGenerator)) {
+            return;
+        }
+        BatchGenerator generator = (BatchGenerator) context.policy();
+        GeneratorElement generatorElement = entityElement.instanceGenerator;
+        if (generatorElement.name == null || !generator.isBatchable(generatorElement.name)) {
+            return;
+        }
+        String unique = EntityResolver.unique(entityElement);
+        List<GeneratorContext> pending = new ArrayList<GeneratorContext>(contexts.size());
+        Set<String> nodePaths = new HashSet<String>();
+        for (GeneratorContext generatorContext : contexts) {
+            String nodePath = generatorContext.nodePath();
+            if (context.getGeneratedValue(nodePath + unique) == null && nodePaths.add(nodePath)) {
+                pending.add(generatorContext); // a repeated path will find the value of the first
+            }
+        }
+        if (pending.size() < 2) {
+            return;
+        }
+        InstanceBatch batch = new InstanceBatch(context.input(), generatorElement, pending);
+        List<GeneratedValue> values = generator.generate(generatorElement.name, batch.rows());
+        pending.get(0).generated(values.size());
+        if (values.size() != pending.size()) {
+            throw exception("Generator " + generatorElement.name + " returned " + values.size() + " values for " + pending.size() + " nodes");
+        }
+        for (int walk = 0; walk < values.size(); walk++) {
+            pending.get(walk).prefetch(unique, values.get(walk));
+        }
+    }
+
+    private InstanceBatch(XPathInput input, GeneratorElement generatorElement, List<GeneratorContext> contexts) {
+        this.input = input;
+        this.generatorElement = generatorElement;
+        this.contexts = contexts;
+    }
+
+    private List<Generator.ArgValues> rows() {
+        List<Generator.ArgValues> rows = new ArrayList<Generator.ArgValues>(contexts.size());
+        for (int walk = 0; walk < contexts.size(); walk++) {
+            final int row = walk;
+            rows.add(new Generator.ArgValues() {
+                @Override
+                public ArgValue getArgValue(String name, SourceType sourceType) {
+                    return column(name, sourceType).get(row);
+                }
+            });
+        }
+        return rows;
+    }
+
+    private Column column(String name, SourceType sourceType) {
+        String key = name + '|' + sourceType;
+        Column column = columns.get(key);
+        if (column == null) {
+            column = new Column(contexts.size());
+            for (int walk = 0; walk < contexts.size(); walk++) {
+                GeneratorContext generatorContext = contexts.get(walk);
+                try {
+                    column.values[walk] = input.evaluateArgument(generatorContext.node, generatorContext.index, generatorElement, name, sourceType);
+                }
+                catch (RuntimeException e) {
+                    column.failures[walk] = e;
+                }
+            }
+            columns.put(key, column);
+        }
+        return column;
+    }
+
+    private static class Column {
+        final ArgValue[] values;
+        final RuntimeException[] failures;
+
+        Column(int size) {
+            values = new ArgValue[size];
+            failures = new RuntimeException[size];
+        }
+
+        ArgValue get(int row) {
+            if (failures[row] != null) {
+                throw failures[row];
+            }
+            return values[row];
+        }
+    }
+}
@@ -0,0 +1,298 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+
+/**
+ * Metrics kept in counters which many mapping threads can add to at once
+ * without contending, to be read through JMX once registered, or logged as
+ * one line with the rates since the previous line.
+ */
+
+public class LiveMetrics implements Metrics, LiveMetricsMBean {
+    private static final Logger LOG = Logger.getLogger("eu.delving.x3ml");
+    private final Counter records = new Counter();
+    private final Counter triples = new Counter();
+    private final Counter generatorCalls = new Counter();
+    private final Counter generatorCacheHits = new Counter();
+    private final Counter generatorCacheMisses = new Counter();
+    private final Counter expressionCacheHits = new Counter();
+    private final Counter expressionCacheMisses = new Counter();
+    private final Counter joinIndexes = new Counter();
+    private final Counter joinIndexKeys = new Counter();
+    private final AtomicLong largestJoinIndex = new AtomicLong();
+    private volatile long startNanos = System.nanoTime();
+    private ObjectName objectName;
+    private ScheduledFuture<?> logging;
+
+    /**
+     * A count spread over stripes a cache line apart, each thread adding to
+     * its own, so that adding is cheap and reading adds them all up.
+     */
+    static class Counter {
+        private static final int STRIPES = stripes();
+        private static final int PADDING = 8; // longs in a 64 byte cache line
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        void add(long count) {
+            cells.addAndGet((int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, count);
+        }
+
+        long get() {
+            long sum = 0;
+            for (int walk = 0; walk < STRIPES; walk++) {
+                sum += cells.get(walk * PADDING);
+            }
+            return sum;
+        }
+
+        void reset() {
+            for (int walk = 0; walk < STRIPES; walk++) {
+                cells.set(walk * PADDING, 0);
+            }
+        }
+
+        private static int stripes() {
+            int stripes = 1;
+            while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+                stripes <<= 1;
+            }
+            return stripes;
+        }
+    }
+
+    @Override
+    public void record() {
+        records.add(1);
+    }
+
+    @Override
+    public void triples(int count) {
+        triples.add(count);
+    }
+
+    @Override
+    public void generatorCalls(int count) {
+        generatorCalls.add(count);
+    }
+
+    @Override
+    public void generatorCache(boolean hit) {
+        (hit ? generatorCacheHits : generatorCacheMisses).add(1);
+    }
+
+    @Override
+    public void expressionCache(boolean hit) {
+        (hit ? expressionCacheHits : expressionCacheMisses).add(1);
+    }
+
+    @Override
+    public void joinIndex(int keys) {
+        joinIndexes.add(1);
+        joinIndexKeys.add(keys);
+        long largest = largestJoinIndex.get();
+        while (keys > largest && !largestJoinIndex.compareAndSet(largest, keys)) {
+            largest = largestJoinIndex.get();
+        }
+    }
+
+    @Override
+    public long getRecords() {
+        return records.get();
+    }
+
+    @Override
+    public long getTriples() {
+        return triples.get();
+    }
+
+    @Override
+    public long getGeneratorCalls() {
+        return generatorCalls.get();
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        return perSecond(getRecords());
+    }
+
+    @Override
+    public double getTriplesPerSecond() {
+        return perSecond(getTriples());
+    }
+
+    @Override
+    public double getGeneratorCallsPerSecond() {
+        return perSecond(getGeneratorCalls());
+    }
+
+    @Override
+    public double getGeneratorCacheHitRate() {
+        return hitRate(generatorCacheHits.get(), generatorCacheMisses.get());
+    }
+
+    @Override
+    public double getExpressionCacheHitRate() {
+        return hitRate(expressionCacheHits.get(), expressionCacheMisses.get());
+    }
+
+    @Override
+    public long getJoinIndexes() {
+        return joinIndexes.get();
+    }
+
+    @Override
+    public long getJoinIndexKeys() {
+        return joinIndexKeys.get();
+    }
+
+    @Override
+    public long getLargestJoinIndex() {
+        return largestJoinIndex.get();
+    }
+
+    @Override
+    public void reset() {
+        for (Counter counter : new Counter[]{
+                records, triples, generatorCalls, generatorCacheHits, generatorCacheMisses,
+                expressionCacheHits, expressionCacheMisses, joinIndexes, joinIndexKeys
+        }) {
+            counter.reset();
+        }
+        largestJoinIndex.set(0);
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Make these metrics visible to JMX clients like jconsole.
+     *
+     * @param name distinguishes these from the metrics of other engines in the same process
+     */
+    public synchronized void register(String name) {
+        unregister();
+        try {
+            ObjectName objectName = new ObjectName("eu.delving.x3ml:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        }
+        catch (JMException e) {
+            throw exception("Unable to register metrics " + name, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            }
+            catch (JMException e) {
+                LOG.warn("Unable to unregister " + objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Log a line with the rates since the previous line, at info level.
+     *
+     * @param intervalMillis how often
+     */
+    public synchronized void logEvery(long intervalMillis) {
+        stopLogging();
+        logging = Ticker.EXECUTOR.scheduleAtFixedRate(new Runnable() {
+            private long lastNanos = System.nanoTime();
+            private long lastRecords, lastTriples, lastGeneratorCalls;
+
+            @Override
+            public void run() {
+                long now = System.nanoTime();
+                long records = getRecords(), triples = getTriples(), generatorCalls = getGeneratorCalls();
+                double seconds = (now - lastNanos) / 1e9;
+                LOG.info(line(
+                        (records - lastRecords) / seconds,
+                        (triples - lastTriples) / seconds,
+                        (generatorCalls - lastGeneratorCalls) / seconds
+                ));
+                lastNanos = now;
+                lastRecords = records;
+                lastTriples = triples;
+                lastGeneratorCalls = generatorCalls;
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopLogging() {
+        if (logging != null) {
+            logging.cancel(false);
+            logging = null;
+        }
+    }
+
+    /**
+     * @return the totals, with the rates averaged over all the time since creation or reset
+     */
+    public String toString() {
+        return line(getRecordsPerSecond(), getTriplesPerSecond(), getGeneratorCallsPerSecond());
+    }
+
+    private String line(double recordsPerSecond, double triplesPerSecond, double generatorCallsPerSecond) {
+        return String.format(Locale.ROOT,
+                "records %d (%.1f/s), triples %d (%.1f/s), generator calls %d (%.1f/s), " +
+                        "generator cache hits %.1f%%, expression cache hits %.1f%%, join indexes %d with %d keys (largest %d)",
+                getRecords(), recordsPerSecond, getTriples(), triplesPerSecond, getGeneratorCalls(), generatorCallsPerSecond,
+                getGeneratorCacheHitRate() * 100, getExpressionCacheHitRate() * 100,
+                getJoinIndexes(), getJoinIndexKeys(), getLargestJoinIndex()
+        );
+    }
+
+    private double perSecond(long count) {
+        return count / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    private static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+
+    private static class Ticker {
+        static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "x3ml-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
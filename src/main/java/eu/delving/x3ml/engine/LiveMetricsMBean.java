@@ -0,0 +1,48 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+/**
+ * The attributes of LiveMetrics as seen through JMX. Counts are totals since
+ * the metrics were created, rates are averages over that same time.
+ */
+
+public interface LiveMetricsMBean {
+
+    long getRecords();
+
+    long getTriples();
+
+    long getGeneratorCalls();
+
+    double getRecordsPerSecond();
+
+    double getTriplesPerSecond();
+
+    double getGeneratorCallsPerSecond();
+
+    double getGeneratorCacheHitRate();
+
+    double getExpressionCacheHitRate();
+
+    long getJoinIndexes();
+
+    long getJoinIndexKeys();
+
+    long getLargestJoinIndex();
+
+    void reset();
+}
@@ -0,0 +1,256 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.Locale;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+
+/**
+ * An estimate of what one execution keeps in memory, per structure: the DOM
+ * of the source, the join indexes, the generated URIs remembered per node,
+ * the variables of the domains of the current mapping, and the triples of
+ * the output model. Each is counted as it grows and turned into bytes with
+ * a rough size per item plus two bytes per character, so it says which one
+ * to blame rather than exactly how much.
+ * <p/>
+ * It is checked after every domain, and with a limit it can abort the
+ * execution, or carry on with less: the join indexes and the compiled
+ * expressions are dropped whenever over the limit, to be rebuilt when
+ * needed. The generated URIs cannot be dropped, since the same node must
+ * keep getting the same URI.
+ */
+
+public class MemoryReport {
+    private final long[] counts = new long[Structure.values().length];
+    private final long[] chars = new long[Structure.values().length];
+    private final long[] peakCounts = new long[Structure.values().length];
+    private final long[] peakBytes = new long[Structure.values().length];
+    private final Limit limit;
+    private long peakTotal, peakHeap;
+    private String peakWhere;
+    private int releases;
+
+    public enum Structure {
+        DOM("DOM nodes", 120),
+        JOIN_INDEX("join index entries", 100),
+        GENERATED("generated URIs", 150),
+        VARIABLES("domain variables", 120),
+        MODEL("triples", 200);
+
+        public final String description;
+        public final int bytesPerItem;
+
+        Structure(String description, int bytesPerItem) {
+            this.description = description;
+            this.bytesPerItem = bytesPerItem;
+        }
+    }
+
+    public enum Action {
+        ABORT,
+        SAVE_MEMORY
+    }
+
+    /**
+     * When an execution uses too much: either more than a number of estimated
+     * bytes, or a fraction of the maximum heap actually in use, which also
+     * counts garbage not yet collected.
+     */
+    public static class Limit {
+        public final long bytes;
+        public final double heapFraction;
+        public final Action action;
+
+        public Limit(long bytes, double heapFraction, Action action) {
+            this.bytes = bytes;
+            this.heapFraction = heapFraction;
+            this.action = action;
+        }
+
+        /**
+         * @param spec like "abort:90%" for a fraction of the heap, or "save:2048" for estimated megabytes
+         * @return the limit
+         */
+        public static Limit parse(String spec) {
+            int colon = spec.indexOf(':');
+            if (colon < 0) {
+                throw exception("Memory limit should be abort:amount or save:amount, not " + spec);
+            }
+            String action = spec.substring(0, colon);
+            String amount = spec.substring(colon + 1).trim();
+            Action which;
+            if ("abort".equals(action)) {
+                which = Action.ABORT;
+            }
+            else if ("save".equals(action)) {
+                which = Action.SAVE_MEMORY;
+            }
+            else {
+                throw exception("Memory limit action should be abort or save, not " + action);
+            }
+            try {
+                if (amount.endsWith("%")) {
+                    return new Limit(0, Double.parseDouble(amount.substring(0, amount.length() - 1)) / 100, which);
+                }
+                return new Limit(Long.parseLong(amount) << 20, 0, which);
+            }
+            catch (NumberFormatException e) {
+                throw exception("Memory limit amount should be megabytes or a percentage of the heap, not " + amount);
+            }
+        }
+
+        public String toString() {
+            return (action == Action.ABORT ? "abort:" : "save:") +
+                    (heapFraction > 0 ? String.format(Locale.ROOT, "%.0f%%", heapFraction * 100) : String.valueOf(bytes >> 20));
+        }
+    }
+
+    MemoryReport(Limit limit) {
+        this.limit = limit;
+    }
+
+    void add(Structure structure, long count, long characters) {
+        counts[structure.ordinal()] += count;
+        chars[structure.ordinal()] += characters;
+    }
+
+    void clear(Structure structure) {
+        counts[structure.ordinal()] = 0;
+        chars[structure.ordinal()] = 0;
+    }
+
+    void countDOM(Node node) {
+        long nodes = 0, characters = 0;
+        Node walk = node;
+        while (walk != null) {
+            nodes++;
+            if (walk.getNodeValue() != null) {
+                characters += walk.getNodeValue().length();
+            }
+            NamedNodeMap attributes = walk.getAttributes();
+            if (attributes != null) {
+                for (int index = 0; index < attributes.getLength(); index++) {
+                    nodes++;
+                    characters += attributes.item(index).getNodeValue().length();
+                }
+            }
+            if (walk.getFirstChild() != null) {
+                walk = walk.getFirstChild();
+                continue;
+            }
+            while (walk != null && walk != node && walk.getNextSibling() == null) {
+                walk = walk.getParentNode();
+            }
+            walk = walk == null || walk == node ? null : walk.getNextSibling();
+        }
+        add(Structure.DOM, nodes, characters);
+    }
+
+    /**
+     * Take the measure of things now.
+     *
+     * @param where which mapping is running
+     * @param triples how many the model has
+     * @return true if over the limit
+     */
+    boolean check(String where, long triples) {
+        counts[Structure.MODEL.ordinal()] = triples;
+        long total = 0;
+        for (Structure structure : Structure.values()) {
+            int index = structure.ordinal();
+            long bytes = bytes(structure);
+            total += bytes;
+            peakCounts[index] = Math.max(peakCounts[index], counts[index]);
+            peakBytes[index] = Math.max(peakBytes[index], bytes);
+        }
+        if (total > peakTotal) {
+            peakTotal = total;
+            peakWhere = where;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        peakHeap = Math.max(peakHeap, heap);
+        if (limit == null) {
+            return false;
+        }
+        return limit.heapFraction > 0 ? heap > limit.heapFraction * runtime.maxMemory() : total > limit.bytes;
+    }
+
+    Limit getLimit() {
+        return limit;
+    }
+
+    void released() {
+        releases++;
+    }
+
+    public long getCount(Structure structure) {
+        return counts[structure.ordinal()];
+    }
+
+    public long getPeakCount(Structure structure) {
+        return peakCounts[structure.ordinal()];
+    }
+
+    /**
+     * @return the largest estimate of the retained size of the structure
+     */
+    public long getPeakBytes(Structure structure) {
+        return peakBytes[structure.ordinal()];
+    }
+
+    /**
+     * @return the largest estimate of all of them together
+     */
+    public long getPeakTotal() {
+        return peakTotal;
+    }
+
+    /**
+     * @return how often the join indexes and compiled expressions were dropped to save memory
+     */
+    public int getReleases() {
+        return releases;
+    }
+
+    public String toString() {
+        StringBuilder out = new StringBuilder(String.format(
+                "%-20s %12s %12s %12s%n", "structure", "count", "peak count", "peak MB"
+        ));
+        for (Structure structure : Structure.values()) {
+            out.append(String.format(Locale.ROOT,
+                    "%-20s %12d %12d %12.1f%n",
+                    structure.description, getCount(structure), getPeakCount(structure), getPeakBytes(structure) / 1048576.0
+            ));
+        }
+        out.append(String.format(Locale.ROOT,
+                "estimated peak %.1f MB in %s, heap peak seen %.1f MB of %.1f MB",
+                peakTotal / 1048576.0, peakWhere, peakHeap / 1048576.0, Runtime.getRuntime().maxMemory() / 1048576.0
+        ));
+        if (releases > 0) {
+            out.append(", join indexes dropped ").append(releases).append(" times");
+        }
+        return out.append(String.format("%n")).toString();
+    }
+
+    private long bytes(Structure structure) {
+        return counts[structure.ordinal()] * structure.bytesPerItem + chars[structure.ordinal()] * 2;
+    }
+}
@@ -0,0 +1,85 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+/**
+ * What the engine reports while it runs, so that a long batch can be
+ * watched as it goes. Every method is called from the thread doing the work,
+ * often once per node or per triple, so implementations must be thread safe
+ * and cheap. LiveMetrics is the one that comes with the engine.
+ */
+
+public interface Metrics {
+
+    /**
+     * Reports nothing, for when nobody is watching.
+     */
+    Metrics NONE = new Metrics() {
+        @Override
+        public void record() {
+        }
+
+        @Override
+        public void triples(int count) {
+        }
+
+        @Override
+        public void generatorCalls(int count) {
+        }
+
+        @Override
+        public void generatorCache(boolean hit) {
+        }
+
+        @Override
+        public void expressionCache(boolean hit) {
+        }
+
+        @Override
+        public void joinIndex(int keys) {
+        }
+    };
+
+    /**
+     * An execution over one source record has started.
+     */
+    void record();
+
+    /**
+     * Statements were added to the output model, including any already there.
+     */
+    void triples(int count);
+
+    /**
+     * The generator policy was asked for this many values.
+     */
+    void generatorCalls(int count);
+
+    /**
+     * A custom generator value was looked up in the generator cache.
+     */
+    void generatorCache(boolean hit);
+
+    /**
+     * An xpath expression was needed, and was already compiled or not.
+     */
+    void expressionCache(boolean hit);
+
+    /**
+     * A join index was built with this many distinct keys.
+     */
+    void joinIndex(int keys);
+}
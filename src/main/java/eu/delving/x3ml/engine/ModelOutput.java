@@ -15,10 +15,12 @@
 //===========================================================================
 package eu.delving.x3ml.engine;
 
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
 import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
 
 import javax.xml.namespace.NamespaceContext;
 import java.io.ByteArrayOutputStream;
@@ -39,8 +41,20 @@ public class ModelOutput implements Output {
     private final NamespaceContext namespaceContext;
 
     public ModelOutput(Model model, NamespaceContext namespaceContext) {
+        this(model, namespaceContext, Metrics.NONE);
+    }
+
+    public ModelOutput(Model model, NamespaceContext namespaceContext, final Metrics metrics) {
         this.model = model;
         this.namespaceContext = namespaceContext;
+        if (metrics != Metrics.NONE) { // the model only tells listeners, so no cost without one
+            model.register(new StatementListener() {
+                @Override
+                public void addedStatement(Statement statement) {
+                    metrics.triples(1);
+                }
+            });
+        }
     }
 
     public Model getModel() {
@@ -82,15 +96,26 @@ public class ModelOutput implements Output {
     }
 
     public void writeXML(PrintStream out) {
-        model.write(out, "RDF/XML-ABBREV");
+        writeModel(out, "RDF/XML-ABBREV");
     }
 
     public void writeNTRIPLE(PrintStream out) {
-        model.write(out, "N-TRIPLE");
+        writeModel(out, "N-TRIPLE");
     }
 
     public void writeTURTLE(PrintStream out) {
-        model.write(out, "TURTLE");
+        writeModel(out, "TURTLE");
+    }
+
+    private void writeModel(PrintStream out, String language) {
+        Object span = Stages.begin(Stages.Stage.FLUSH);
+        try {
+            model.write(out, language);
+            out.flush();
+        }
+        finally {
+            Stages.end(span, language, model.size());
+        }
     }
 
     public void write(PrintStream out, String format) {
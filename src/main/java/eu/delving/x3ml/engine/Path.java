@@ -102,11 +102,15 @@ public class Path extends GeneratorContext {
         if (range.source_node.expression.equals(expression)) {
             expression = "";
         }
-        List<Node> rangeNodes = context.input().nodeList(node, expression);
-        List<Range> ranges = new ArrayList<Range>();
+        List<Node> rangeNodes = context.input().nodeList(XPathStats.Site.RANGE, node, expression);
+        List<Range> candidates = new ArrayList<Range>(rangeNodes.size());
         int index = 1;
         for (Node rangeNode : rangeNodes) {
-            Range rangeContext = new Range(context, this, range, rangeNode, index++);
+            candidates.add(new Range(context, this, range, rangeNode, index++));
+        }
+        InstanceBatch.prefetch(candidates, range.target_node);
+        List<Range> ranges = new ArrayList<Range>();
+        for (Range rangeContext : candidates) {
             if (rangeContext.resolve()) {
                 ranges.add(rangeContext);
             }
@@ -0,0 +1,148 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Where the time of an execution goes, per mapping and per link: how often
+ * each ran, the domains, paths and ranges it produced, the generator calls
+ * made and the triples added while it ran, and its wall time. A mapping's
+ * time and triples include those of its links.
+ * <p/>
+ * One execution fills its own profile without any locking, and the engine
+ * merges it into its running total when the execution is done.
+ */
+
+public class Profile {
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private final Model model;
+    private Entry current;
+
+    public static class Entry {
+        public final String where;
+        public long runs, domains, paths, ranges, generatorCalls, triples, nanos;
+        private Entry outer;
+        private long startNanos, startTriples;
+
+        private Entry(String where) {
+            this.where = where;
+        }
+
+        private void add(Entry other) {
+            runs += other.runs;
+            domains += other.domains;
+            paths += other.paths;
+            ranges += other.ranges;
+            generatorCalls += other.generatorCalls;
+            triples += other.triples;
+            nanos += other.nanos;
+        }
+    }
+
+    /**
+     * @return a profile to accumulate the profiles of executions
+     */
+    public static Profile total() {
+        return new Profile(null);
+    }
+
+    Profile(Model model) {
+        this.model = model;
+    }
+
+    Entry enter(String where) {
+        Entry entry = entries.get(where);
+        if (entry == null) {
+            entries.put(where, entry = new Entry(where));
+        }
+        entry.outer = current;
+        entry.runs++;
+        entry.startTriples = model.size();
+        entry.startNanos = System.nanoTime();
+        return current = entry;
+    }
+
+    void exit(Entry entry) {
+        entry.nanos += System.nanoTime() - entry.startNanos;
+        entry.triples += model.size() - entry.startTriples;
+        current = entry.outer;
+        entry.outer = null;
+    }
+
+    void generated(int calls) {
+        if (current != null) {
+            current.generatorCalls += calls;
+        }
+    }
+
+    public synchronized void merge(Profile execution) {
+        for (Entry entry : execution.entries.values()) {
+            Entry total = entries.get(entry.where);
+            if (total == null) {
+                entries.put(entry.where, total = new Entry(entry.where));
+            }
+            total.add(entry);
+        }
+    }
+
+    public synchronized List<Entry> getEntries() {
+        List<Entry> copies = new ArrayList<Entry>(entries.size());
+        for (Entry entry : entries.values()) {
+            Entry copy = new Entry(entry.where);
+            copy.add(entry);
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    public String toTable() {
+        StringBuilder out = new StringBuilder(String.format(
+                "%-24s %8s %10s %10s %10s %12s %10s %12s%n",
+                "where", "runs", "domains", "paths", "ranges", "generated", "triples", "ms"
+        ));
+        for (Entry entry : getEntries()) {
+            out.append(String.format(
+                    "%-24s %8d %10d %10d %10d %12d %10d %12.3f%n",
+                    entry.where, entry.runs, entry.domains, entry.paths, entry.ranges,
+                    entry.generatorCalls, entry.triples, entry.nanos / 1e6
+            ));
+        }
+        return out.toString();
+    }
+
+    public String toJSON() {
+        StringBuilder out = new StringBuilder("[");
+        for (Entry entry : getEntries()) {
+            if (out.length() > 1) {
+                out.append(",");
+            }
+            out.append(String.format(Locale.ROOT,
+                    "%n  {\"where\": \"%s\", \"runs\": %d, \"domains\": %d, \"paths\": %d, \"ranges\": %d, " +
+                            "\"generatorCalls\": %d, \"triples\": %d, \"millis\": %.3f}",
+                    entry.where, entry.runs, entry.domains, entry.paths, entry.ranges,
+                    entry.generatorCalls, entry.triples, entry.nanos / 1e6
+            ));
+        }
+        return out.append(String.format("%n]%n")).toString();
+    }
+}
@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static eu.delving.x3ml.X3MLEngine.exception;
 import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
 
 /**
@@ -41,15 +42,23 @@ public class Root {
     private final XPathInput xpathInput;
     private final Context context;
     private final Map<String, GeneratedValue> generated = new HashMap<String, GeneratedValue>();
+    private final Profile profile;
+    private MemoryReport memory;
 
     public Root(Element rootNode, final Generator generator, NamespaceContext namespaceContext, List<String> prefixes) {
+        this(rootNode, generator, namespaceContext, prefixes, false, false, Metrics.NONE);
+    }
+
+    public Root(Element rootNode, final Generator generator, NamespaceContext namespaceContext, List<String> prefixes, boolean profiling, boolean xpathStatistics, Metrics metrics) {
         this.rootNode = rootNode;
         Model model = ModelFactory.createDefaultModel();
+        this.profile = profiling ? new Profile(model) : null;
         for (String prefix : prefixes) {
             model.setNsPrefix(prefix, namespaceContext.getNamespaceURI(prefix));
         }
-        this.modelOutput = new ModelOutput(model, namespaceContext);
-        this.xpathInput = new XPathInput(rootNode, namespaceContext, generator.getLanguageFromMapping());
+        this.modelOutput = new ModelOutput(model, namespaceContext, metrics);
+        this.xpathInput = new XPathInput(rootNode, namespaceContext, generator.getLanguageFromMapping(), xpathStatistics ? new XPathStats() : null, metrics);
+        metrics.record();
         this.context = new Context() {
 
             @Override
@@ -67,6 +76,16 @@ public class Root {
                 return generator;
             }
 
+            @Override
+            public Profile profile() {
+                return profile;
+            }
+
+            @Override
+            public MemoryReport memory() {
+                return memory;
+            }
+
             @Override
             public GeneratedValue getGeneratedValue(String xpath) {
                 return generated.get(xpath);
@@ -76,7 +95,9 @@ public class Root {
             public void putGeneratedValue(String xpath, GeneratedValue generatedValue) {
                 switch (generatedValue.type) {
                     case URI:
-                        generated.put(xpath, generatedValue);
+                        if (generated.put(xpath, generatedValue) == null && memory != null) {
+                            memory.add(MemoryReport.Structure.GENERATED, 1, xpath.length() + generatedValue.text.length());
+                        }
                         break;
                     case LITERAL:
                         break;
@@ -91,16 +112,75 @@ public class Root {
         return modelOutput;
     }
 
+    /**
+     * @return what this execution spent where, or null if it was not profiled
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return what the xpath evaluations of this execution cost, or null if they were not counted
+     */
+    public XPathStats getXPathStats() {
+        return xpathInput.getStats();
+    }
+
+    /**
+     * Estimate what this execution keeps in memory from now on, starting
+     * with the source DOM.
+     *
+     * @param limit what to do when it gets too much, or null to only report
+     * @return the report, filled in as the execution goes
+     */
+    public MemoryReport reportMemory(MemoryReport.Limit limit) {
+        memory = new MemoryReport(limit);
+        memory.countDOM(rootNode);
+        xpathInput.setMemoryReport(memory);
+        return memory;
+    }
+
+    /**
+     * @return the memory estimate, or null if nobody asked for one
+     */
+    public MemoryReport getMemoryReport() {
+        return memory;
+    }
+
+    void checkMemory(String where) {
+        if (memory == null || !memory.check(where, modelOutput.getModel().size())) {
+            return;
+        }
+        if (memory.getLimit().action == MemoryReport.Action.SAVE_MEMORY) {
+            if (xpathInput.release()) {
+                memory.released();
+            }
+            return;
+        }
+        throw exception("Memory limit " + memory.getLimit() + " reached in " + where + "\n" + memory);
+    }
+
+    void endMapping(String where) {
+        if (memory != null) {
+            checkMemory(where);
+            memory.clear(MemoryReport.Structure.VARIABLES); // the domains of the mapping are gone
+        }
+    }
+
     public List<Domain> createDomainContexts(X3ML.DomainElement domain) {
-        List<Node> domainNodes = xpathInput.nodeList(rootNode, domain.source_node);
-        List<Domain> domains = new ArrayList<Domain>();
+        List<Node> domainNodes = xpathInput.nodeList(XPathStats.Site.DOMAIN, rootNode, domain.source_node);
+        List<Domain> candidates = new ArrayList<Domain>(domainNodes.size());
         int index = 1;
         for (Node domainNode : domainNodes) {
-            Domain domainContext = new Domain(context, domain, domainNode, index++);
+            candidates.add(new Domain(context, domain, domainNode, index++));
+        }
+        InstanceBatch.prefetch(candidates, domain.target_node);
+        List<Domain> domains = new ArrayList<Domain>();
+        for (Domain domainContext : candidates) {
             if (domainContext.resolve()) {
                 domains.add(domainContext);
             } else {
-                System.out.println("Unresolved: " + domainContext);
+                Diagnostics.note(Diagnostics.Event.UNRESOLVED_DOMAIN, domainContext);
             }
         }
         return domains;
@@ -114,6 +194,10 @@ public class Root {
 
         Generator policy();
 
+        Profile profile();
+
+        MemoryReport memory();
+
         GeneratedValue getGeneratedValue(String xpath);
 
         void putGeneratedValue(String xpath, GeneratedValue generatedValue);
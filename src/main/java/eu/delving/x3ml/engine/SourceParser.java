@@ -0,0 +1,135 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static eu.delving.x3ml.X3MLEngine.exception;
+
+/**
+ * Parses source records with parsers kept per thread, resolving external
+ * entities through the {@link InputCatalog} only.
+ */
+
+public class SourceParser {
+    private static volatile InputCatalog catalog = InputCatalog.fromSystemProperty();
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            try {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                return factory.newDocumentBuilder();
+            }
+            catch (ParserConfigurationException e) {
+                throw exception("Unable to configure parser", e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<SAXParser> SAX_PARSER = new ThreadLocal<SAXParser>() {
+        @Override
+        protected SAXParser initialValue() {
+            try {
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                factory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+                return factory.newSAXParser();
+            }
+            catch (ParserConfigurationException e) {
+                throw exception("Unable to configure parser", e);
+            }
+            catch (SAXException e) {
+                throw exception("Unable to configure parser", e);
+            }
+        }
+    };
+
+    public static InputCatalog getCatalog() {
+        return catalog;
+    }
+
+    public static void setCatalog(InputCatalog catalog) {
+        SourceParser.catalog = catalog;
+    }
+
+    /**
+     * @param inputStream the source XML
+     * @return its document element
+     */
+    public static Element parse(InputStream inputStream) {
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        builder.setEntityResolver(catalog);
+        Object span = Stages.begin(Stages.Stage.PARSE);
+        try {
+            return builder.parse(inputStream).getDocumentElement();
+        }
+        catch (SAXException e) {
+            throw exception("Unable to parse XML input", e);
+        }
+        catch (IOException e) {
+            throw exception("Unable to read XML input", e);
+        }
+        finally {
+            builder.reset();
+            Stages.end(span, "DOM", 0);
+        }
+    }
+
+    /**
+     * @return an empty document to build a source in
+     */
+    static Document newDocument() {
+        return DOCUMENT_BUILDER.get().newDocument();
+    }
+
+    /**
+     * Parse with SAX, with the handler resolving entities through the catalog.
+     *
+     * @param inputStream the source XML
+     * @param handler which builds whatever it needs
+     */
+    static void parse(InputStream inputStream, DefaultHandler handler) {
+        SAXParser parser = SAX_PARSER.get();
+        Object span = Stages.begin(Stages.Stage.PARSE);
+        try {
+            parser.parse(new InputSource(inputStream), handler);
+        }
+        catch (SAXException e) {
+            throw exception("Unable to parse XML input", e);
+        }
+        catch (IOException e) {
+            throw exception("Unable to read XML input", e);
+        }
+        finally {
+            parser.reset();
+            Stages.end(span, "SAX", 0);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static eu.delving.x3ml.engine.X3ML.Additional;
+import static eu.delving.x3ml.engine.X3ML.Condition;
+import static eu.delving.x3ml.engine.X3ML.EntityElement;
+import static eu.delving.x3ml.engine.X3ML.GeneratorArg;
+import static eu.delving.x3ml.engine.X3ML.GeneratorElement;
+import static eu.delving.x3ml.engine.X3ML.LinkElement;
+import static eu.delving.x3ml.engine.X3ML.Mapping;
+import static eu.delving.x3ml.engine.X3ML.RootElement;
+import static eu.delving.x3ml.engine.X3ML.Source;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static eu.delving.x3ml.engine.X3ML.TargetNode;
+import static eu.delving.x3ml.engine.X3ML.TargetRelation;
+
+/**
+ * Finds out from the xpaths in a mapping which elements of the source it can
+ * ever reach, so that the source can be parsed without the rest.
+ * <p/>
+ * An element is kept when its local name appears in some xpath, or when it
+ * contains such an element, and the text and attributes of kept elements are
+ * kept. Elements named inside predicates or function arguments are kept
+ * whole, since their string value may be compared. Expressions with
+ * wildcards, node(), variables, or text or attributes anywhere below a
+ * descendant step cannot be projected like this, and then the whole source
+ * is parsed.
+ */
+
+public class SourceProjection {
+    private final Set<String> names = new HashSet<String>();
+    private final Set<String> wholeNames = new HashSet<String>();
+    private final SourceType defaultType;
+    private String fallback;
+
+    public static SourceProjection of(RootElement rootElement) {
+        SourceProjection projection = new SourceProjection(rootElement.sourceType);
+        if (rootElement.mappings != null) {
+            for (Mapping mapping : rootElement.mappings) {
+                projection.mapping(mapping);
+            }
+        }
+        return projection;
+    }
+
+    private SourceProjection(SourceType defaultType) {
+        this.defaultType = defaultType;
+    }
+
+    /**
+     * @return false when the whole source has to be parsed
+     */
+    public boolean isProjectable() {
+        return fallback == null;
+    }
+
+    /**
+     * @return why the source cannot be projected, or null
+     */
+    public String getFallback() {
+        return fallback;
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Parse the source, leaving out what the mapping can never reach.
+     *
+     * @param inputStream the source XML
+     * @return the document element
+     */
+    public Element parse(InputStream inputStream) {
+        if (!isProjectable()) {
+            return SourceParser.parse(inputStream);
+        }
+        Builder builder = new Builder(SourceParser.newDocument());
+        SourceParser.parse(inputStream, builder);
+        return builder.document.getDocumentElement();
+    }
+
+    // ==== what the mapping refers to
+
+    private void mapping(Mapping mapping) {
+        if (mapping.domain != null) {
+            source(mapping.domain.source_node);
+            targetNode(mapping.domain.target_node);
+        }
+        if (mapping.links == null) {
+            return;
+        }
+        for (LinkElement link : mapping.links) {
+            if (link.path != null) {
+                if (link.path.source_relation != null) {
+                    source(link.path.source_relation.relation);
+                    source(link.path.source_relation.relation2);
+                    source(link.path.source_relation.node);
+                }
+                TargetRelation relation = link.path.target_relation;
+                if (relation != null) {
+                    condition(relation.condition);
+                    if (relation.entities != null) {
+                        for (EntityElement entityElement : relation.entities) {
+                            entity(entityElement);
+                        }
+                    }
+                }
+            }
+            if (link.range != null) {
+                source(link.range.source_node);
+                targetNode(link.range.target_node);
+            }
+        }
+    }
+
+    private void targetNode(TargetNode targetNode) {
+        if (targetNode != null) {
+            condition(targetNode.condition);
+            entity(targetNode.entityElement);
+        }
+    }
+
+    private void entity(EntityElement entityElement) {
+        if (entityElement == null) {
+            return;
+        }
+        generator(entityElement.instanceGenerator);
+        if (entityElement.labelGenerators != null) {
+            for (GeneratorElement generatorElement : entityElement.labelGenerators) {
+                generator(generatorElement);
+            }
+        }
+        if (entityElement.additionals != null) {
+            for (Additional additional : entityElement.additionals) {
+                entity(additional.entityElement);
+            }
+        }
+    }
+
+    private void generator(GeneratorElement generatorElement) {
+        if (generatorElement == null || generatorElement.args == null) {
+            return;
+        }
+        for (GeneratorArg arg : generatorElement.args) {
+            SourceType type = arg.type == null ? defaultType : SourceType.valueOf(arg.type);
+            if (type == null || type == SourceType.xpath) {
+                expression(arg.value);
+            }
+        }
+    }
+
+    private void condition(Condition condition) {
+        if (condition == null) {
+            return;
+        }
+        if (condition.exists != null) {
+            expression(condition.exists.expression);
+        }
+        if (condition.equals != null) {
+            expression(condition.equals.expression);
+        }
+        if (condition.narrower != null) {
+            expression(condition.narrower.expression);
+        }
+        if (condition.and != null) {
+            for (Condition inner : condition.and.list) {
+                condition(inner);
+            }
+        }
+        if (condition.or != null) {
+            for (Condition inner : condition.or.list) {
+                condition(inner);
+            }
+        }
+        if (condition.not != null) {
+            condition(condition.not.condition);
+        }
+    }
+
+    private void source(Source source) {
+        if (source != null) {
+            expression(source.expression);
+        }
+    }
+
+    // ==== reading the xpaths
+
+    private void expression(String expression) {
+        if (expression == null || fallback != null) {
+            return;
+        }
+        List<String> stepNames = new ArrayList<String>();
+        List<Boolean> valueDepth = new ArrayList<Boolean>(); // inside predicates and function arguments
+        boolean afterDescendant = false;
+        boolean attributeAxis = false;
+        boolean contextStep = false;
+        boolean contextValue = false;
+        int pos = 0;
+        int length = expression.length();
+        while (pos < length && fallback == null) {
+            char c = expression.charAt(pos);
+            boolean inValue = !valueDepth.isEmpty() && valueDepth.get(valueDepth.size() - 1);
+            if (c == '\'' || c == '"') {
+                int end = expression.indexOf(c, pos + 1);
+                pos = end < 0 ? length : end + 1;
+            }
+            else if (c == '/') {
+                afterDescendant = pos + 1 < length && expression.charAt(pos + 1) == '/';
+                pos += afterDescendant ? 2 : 1;
+            }
+            else if (c == '[') {
+                valueDepth.add(true);
+                pos++;
+            }
+            else if (c == '(') {
+                valueDepth.add(inValue); // grouping
+                pos++;
+            }
+            else if (c == ']' || c == ')') {
+                if (!valueDepth.isEmpty()) {
+                    valueDepth.remove(valueDepth.size() - 1);
+                }
+                pos++;
+            }
+            else if (c == '@') {
+                pos = skipSpace(expression, pos + 1);
+                if (pos < length && expression.charAt(pos) == '*') {
+                    pos++;
+                }
+                else {
+                    pos = nameEnd(expression, pos);
+                }
+                if (afterDescendant) {
+                    fallback = "Attributes below a descendant step in " + expression;
+                }
+                afterDescendant = false;
+            }
+            else if (c == '.' && !(pos + 1 < length && Character.isDigit(expression.charAt(pos + 1)))) {
+                boolean parent = pos + 1 < length && expression.charAt(pos + 1) == '.';
+                if (inValue) {
+                    if (parent) {
+                        fallback = "Value of a parent in " + expression;
+                    }
+                    contextValue = true;
+                }
+                else {
+                    contextStep = true;
+                }
+                afterDescendant = false;
+                pos += parent ? 2 : 1;
+            }
+            else if (c == '*') {
+                fallback = "Wildcard in " + expression;
+            }
+            else if (c == '$') {
+                fallback = "Variable in " + expression;
+            }
+            else if (isNameStart(c)) {
+                int end = nameEnd(expression, pos);
+                String name = expression.substring(pos, end);
+                int colon = name.indexOf(':');
+                String localName = colon < 0 ? name : name.substring(colon + 1);
+                int next = skipSpace(expression, end);
+                if (next + 1 < length && expression.charAt(next) == ':' && expression.charAt(next + 1) == ':') {
+                    if (name.startsWith("descendant")) {
+                        afterDescendant = true;
+                    }
+                    else if (name.equals("attribute")) {
+                        attributeAxis = true;
+                    }
+                    else if (name.equals("namespace")) {
+                        fallback = "Namespace axis in " + expression;
+                    }
+                    pos = next + 2;
+                }
+                else if (next < length && expression.charAt(next) == '(') {
+                    if (name.equals("text")) {
+                        if (afterDescendant) {
+                            fallback = "Text below a descendant step in " + expression;
+                        }
+                        valueDepth.add(inValue);
+                    }
+                    else if (name.equals("node") || name.equals("comment") || name.equals("processing-instruction")) {
+                        fallback = "Node test " + name + "() in " + expression;
+                    }
+                    else {
+                        valueDepth.add(true); // function arguments
+                    }
+                    afterDescendant = false;
+                    pos = next + 1;
+                }
+                else {
+                    if (attributeAxis) {
+                        if (afterDescendant) {
+                            fallback = "Attributes below a descendant step in " + expression;
+                        }
+                        attributeAxis = false;
+                    }
+                    else {
+                        names.add(localName);
+                        stepNames.add(localName);
+                        if (inValue) {
+                            wholeNames.add(localName);
+                        }
+                    }
+                    afterDescendant = false;
+                    pos = end;
+                }
+            }
+            else if (Character.isDigit(c)) {
+                while (pos < length && (Character.isDigit(expression.charAt(pos)) || expression.charAt(pos) == '.')) {
+                    pos++;
+                }
+            }
+            else {
+                pos++;
+            }
+        }
+        if (contextValue) {
+            if (contextStep || stepNames.isEmpty()) {
+                fallback = "Value of the context node in " + expression;
+            }
+            else {
+                wholeNames.addAll(stepNames); // the value of one of these steps
+            }
+        }
+    }
+
+    private static boolean isNameStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static int nameEnd(String expression, int pos) {
+        int end = pos;
+        while (end < expression.length()) {
+            char c = expression.charAt(end);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.') {
+                end++;
+            }
+            else if (c == ':' && end + 1 < expression.length() && isNameStart(expression.charAt(end + 1))
+                    && expression.indexOf(':', pos) == end) {
+                end++; // prefix
+            }
+            else {
+                break;
+            }
+        }
+        return end;
+    }
+
+    private static int skipSpace(String expression, int pos) {
+        while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    // ==== building the pruned tree
+
+    private class Builder extends DefaultHandler {
+        private final Document document;
+        private Node current;
+        private int wholeDepth;
+        private boolean pruned;
+
+        private Builder(Document document) {
+            this.document = document;
+            this.current = document;
+        }
+
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            return SourceParser.getCatalog().resolveEntity(publicId, systemId);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            Element element = document.createElementNS(uri.isEmpty() ? null : uri, qName);
+            for (int walk = 0; walk < attributes.getLength(); walk++) {
+                String attributeUri = attributes.getURI(walk);
+                String attributeName = attributes.getQName(walk);
+                if (attributeName.equals("xmlns") || attributeName.startsWith("xmlns:")) {
+                    attributeUri = "http://www.w3.org/2000/xmlns/";
+                }
+                element.setAttributeNS(attributeUri.isEmpty() ? null : attributeUri, attributeName, attributes.getValue(walk));
+            }
+            current.appendChild(element);
+            current = element;
+            if (wholeDepth > 0 || wholeNames.contains(localName)) {
+                wholeDepth++;
+            }
+            pruned = false;
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            Node element = current;
+            current = element.getParentNode();
+            if (wholeDepth > 0) {
+                wholeDepth--;
+            }
+            else if (current != document && !names.contains(localName) && !hasElements(element)) {
+                current.removeChild(element);
+                pruned = true;
+                return;
+            }
+            pruned = false;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            Node last = current.getLastChild();
+            if (!pruned && last instanceof Text) {
+                ((Text) last).appendData(new String(ch, start, length));
+            }
+            else {
+                current.appendChild(document.createTextNode(new String(ch, start, length)));
+            }
+            pruned = false;
+        }
+
+        private boolean hasElements(Node element) {
+            for (Node kid = element.getFirstChild(); kid != null; kid = kid.getNextSibling()) {
+                if (kid.getNodeType() == Node.ELEMENT_NODE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+/**
+ * Marks the stages of mapping in Java Flight Recorder recordings, so that
+ * garbage collection and allocation can be laid against parsing, domains,
+ * links, generators and writing output. The events are those of
+ * FlightRecorderStages, used only on a JVM which has the jdk.jfr API (8u262
+ * and later), and then only recorded when enabled in the JFR settings, see
+ * x3ml.jfc. Otherwise every stage costs a static call returning null.
+ * Setting -Dx3ml.jfr=false leaves them out altogether.
+ */
+
+public final class Stages {
+    private static final Recorder RECORDER = recorder();
+
+    public enum Stage {
+        PARSE,
+        DOMAIN,
+        LINK,
+        GENERATOR,
+        FLUSH
+    }
+
+    interface Recorder {
+
+        /**
+         * @return the stage which has begun, or null if it is not being recorded
+         */
+        Object begin(Stage stage);
+
+        void end(Object span, String name, long count);
+    }
+
+    private Stages() {
+    }
+
+    /**
+     * @return whether stages may be recorded at all on this JVM
+     */
+    public static boolean available() {
+        return RECORDER != null;
+    }
+
+    /**
+     * @param stage which is beginning
+     * @return what to pass to end, null if the stage is not being recorded
+     */
+    public static Object begin(Stage stage) {
+        return RECORDER == null ? null : RECORDER.begin(stage);
+    }
+
+    /**
+     * @param span what begin returned
+     * @param name what the stage was about: the mapping, link, generator or format
+     * @param count how many domains, values or triples came out of it
+     */
+    public static void end(Object span, String name, long count) {
+        if (span != null) {
+            RECORDER.end(span, name, count);
+        }
+    }
+
+    private static Recorder recorder() {
+        if ("false".equals(System.getProperty("x3ml.jfr"))) {
+            return null;
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName(Stages.class.getPackage().getName() + ".FlightRecorderStages").newInstance();
+        }
+        catch (Exception e) {
+            return null; // no flight recorder API on this JVM
+        }
+        catch (LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -31,6 +31,9 @@ import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.io.naming.NoNameCoder;
 import com.thoughtworks.xstream.io.xml.XppDriver;
+import com.thoughtworks.xstream.security.NoTypePermission;
+import com.thoughtworks.xstream.security.NullPermission;
+import com.thoughtworks.xstream.security.PrimitiveTypePermission;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -83,6 +86,26 @@ public interface X3ML {
             }
         }
 
+        /**
+         * Give mappings and links a name for diagnostics, which is cheaper
+         * than showing their XML.
+         */
+        public void identify() {
+            if (mappings == null) {
+                return;
+            }
+            int mappingIndex = 1;
+            for (Mapping mapping : mappings) {
+                mapping.where = "mapping " + mappingIndex++;
+                if (mapping.links != null) {
+                    int linkIndex = 1;
+                    for (LinkElement link : mapping.links) {
+                        link.where = mapping.where + " link " + linkIndex++;
+                    }
+                }
+            }
+        }
+
         @XStreamOmitField
         public String comments;
     }
@@ -95,14 +118,42 @@ public interface X3ML {
         @XStreamImplicit
         public List<LinkElement> links;
 
+        @XStreamOmitField
+        public String where;
+
         public void apply(Root context) {
-            for (Domain domain : context.createDomainContexts(this.domain)) {
-                domain.resolve();
-                if (links == null) {
-                    continue;
+            Profile profile = context.getProfile();
+            Profile.Entry entry = profile == null ? null : profile.enter(where);
+            try {
+                List<Domain> domains = null;
+                Object span = Stages.begin(Stages.Stage.DOMAIN);
+                try {
+                    domains = context.createDomainContexts(this.domain);
                 }
-                for (LinkElement linkElement : links) {
-                    linkElement.apply(domain);
+                finally {
+                    Stages.end(span, where, domains == null ? 0 : domains.size());
+                }
+                for (Domain domain : domains) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw exception("Interrupted in " + where); // a server request gave up waiting
+                    }
+                    if (entry != null) {
+                        entry.domains++;
+                    }
+                    domain.resolve();
+                    if (links == null) {
+                        continue;
+                    }
+                    for (LinkElement linkElement : links) {
+                        linkElement.apply(domain);
+                    }
+                    context.checkMemory(where);
+                }
+                context.endMapping(where);
+            }
+            finally {
+                if (entry != null) {
+                    profile.exit(entry);
                 }
             }
         }
@@ -115,20 +166,38 @@ public interface X3ML {
 
         public RangeElement range;
 
+        @XStreamOmitField
+        public String where;
+
         public void apply(Domain domain) {
+            Profile profile = domain.context.profile();
+            Profile.Entry entry = profile == null ? null : profile.enter(where);
+            Object span = Stages.begin(Stages.Stage.LINK);
+            try {
+                link(domain, entry);
+            }
+            finally {
+                Stages.end(span, where, 0);
+                if (entry != null) {
+                    profile.exit(entry);
+                }
+            }
+        }
+
+        private void link(Domain domain, Profile.Entry entry) {
             String pathSource = this.path.source_relation.relation.expression;
             String pathSource2 = "";
             String node_inside = "";
 
-            System.out.println(pathSource);
+            Diagnostics.trace(where, "relation", pathSource);
             if (this.path.source_relation.relation2 != null) {
                 pathSource2 = this.path.source_relation.relation2.expression;
-                System.out.println("pathSource2: " + pathSource2);
+                Diagnostics.trace(where, "relation2", pathSource2);
             }
 
             if (this.path.source_relation.node != null) {
                 node_inside = this.path.source_relation.node.expression;
-                System.out.println("node: " + node_inside);
+                Diagnostics.trace(where, "node", node_inside);
             }
 
             if (this.path.source_relation.node != null) {
@@ -148,6 +217,7 @@ public interface X3ML {
 
                     for (Link link : domain.createLinkContexts(this, domainForeignKey, rangePrimaryKey,
                             intermediateFirst, intermediateSecond, node_inside)) {
+                        count(entry, 1);
                         link.range.link();
                     }
 
@@ -159,20 +229,30 @@ public interface X3ML {
                     String domainForeignKey = pathSource.substring(0, equals).trim();
                     String rangePrimaryKey = pathSource.substring(equals + 2).trim();
                     for (Link link : domain.createLinkContexts(this, domainForeignKey, rangePrimaryKey)) {
+                        count(entry, 1);
                         link.range.link();
                     }
                 }
 
             } else {
-                System.out.println(this.path);
+                Diagnostics.trace(where, "path", this.path);
                 for (Path path : domain.createPathContexts(this.path)) {
-                    System.out.println(this.path);
-                    for (Range range : path.createRangeContexts(this.range)) {
+                    Diagnostics.trace(where, "path context", path);
+                    List<Range> ranges = path.createRangeContexts(this.range);
+                    count(entry, ranges.size());
+                    for (Range range : ranges) {
                         range.link();
                     }
                 }
             }
         }
+
+        private static void count(Profile.Entry entry, int ranges) {
+            if (entry != null) {
+                entry.paths++;
+                entry.ranges += ranges;
+            }
+        }
     }
 
     @XStreamAlias("namespace")
@@ -690,19 +770,36 @@ public interface X3ML {
         }
 
         public static XStream generatorStream() {
-            XStream xstream = new XStream(new PureJavaReflectionProvider(), new XppDriver(new NoNameCoder()));
-            xstream.setMode(XStream.NO_REFERENCES);
-            xstream.processAnnotations(GeneratorPolicy.class);
-            return xstream;
+            return GeneratorStreamHolder.STREAM;
         }
 
         public static XStream x3mlStream() {
+            return X3MLStreamHolder.STREAM;
+        }
+
+        // each stream is configured once and then shared, which XStream allows
+        // across threads as long as nobody configures it any further
+        private static XStream createStream(Class<?> rootClass) {
             XStream xstream = new XStream(new PureJavaReflectionProvider(), new XppDriver(new NoNameCoder()));
             xstream.setMode(XStream.NO_REFERENCES);
-            xstream.processAnnotations(RootElement.class);
+            xstream.processAnnotations(rootClass);
+            // the XML may come from anywhere, so it may only name the classes of the model
+            xstream.addPermission(NoTypePermission.NONE);
+            xstream.addPermission(NullPermission.NULL);
+            xstream.addPermission(PrimitiveTypePermission.PRIMITIVES);
+            xstream.allowTypes(new Class[]{String.class, ArrayList.class});
+            xstream.allowTypesByWildcard(new String[]{"eu.delving.x3ml.**"});
             return xstream;
         }
 
+        private static class X3MLStreamHolder {
+            static final XStream STREAM = createStream(RootElement.class);
+        }
+
+        private static class GeneratorStreamHolder {
+            static final XStream STREAM = createStream(GeneratorPolicy.class);
+        }
+
         public static ArgValue argVal(String string, String language) {
             return new ArgValue(string, language);
         }
@@ -35,6 +35,7 @@ import static eu.delving.x3ml.X3MLEngine.exception;
 import static eu.delving.x3ml.engine.X3ML.GeneratorElement;
 import static eu.delving.x3ml.engine.X3ML.Helper.argVal;
 import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static eu.delving.x3ml.engine.XPathStats.Site;
 
 /**
  * The source data is accessed using xpath to fetch nodes from a DOM tree.
@@ -50,11 +51,50 @@ public class XPathInput {
     private final String languageFromMapping;
     private final Node rootNode;
     private Map<String, Map<String, List<Node>>> rangeMapCache = new TreeMap<String, Map<String, List<Node>>>();
+    // every expression is compiled once per execution, since mappings evaluate the same few for every node
+    private Map<String, XPathExpression> expressionCache = new HashMap<String, XPathExpression>();
+    private final XPathStats stats;
+    private final Metrics metrics;
+    private MemoryReport memory;
 
     public XPathInput(Node rootNode, NamespaceContext namespaceContext, String languageFromMapping) {
+        this(rootNode, namespaceContext, languageFromMapping, null, Metrics.NONE);
+    }
+
+    public XPathInput(Node rootNode, NamespaceContext namespaceContext, String languageFromMapping, XPathStats stats, Metrics metrics) {
         this.rootNode = rootNode;
         this.namespaceContext = namespaceContext;
         this.languageFromMapping = languageFromMapping;
+        this.stats = stats;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return what the evaluations cost, or null if nobody asked
+     */
+    public XPathStats getStats() {
+        return stats;
+    }
+
+    void setMemoryReport(MemoryReport memory) {
+        this.memory = memory;
+    }
+
+    /**
+     * Drop the join indexes and compiled expressions, which are made again when needed.
+     *
+     * @return false if there was nothing to drop
+     */
+    boolean release() {
+        if (rangeMapCache.isEmpty() && expressionCache.isEmpty()) {
+            return false;
+        }
+        rangeMapCache.clear();
+        expressionCache.clear();
+        if (memory != null) {
+            memory.clear(MemoryReport.Structure.JOIN_INDEX);
+        }
+        return true;
     }
 
     public X3ML.ArgValue evaluateArgument(Node node, int index, GeneratorElement generatorElement, String argName, SourceType defaultType) {
@@ -85,9 +125,9 @@ public class XPathInput {
                     lang = languageFromMapping;
                 }
                 if (!foundArg.value.isEmpty()) {
-                    value = argVal(valueAt(node, foundArg.value), lang);
+                    value = argVal(valueAt(Site.ARGUMENT, node, foundArg.value), lang);
                     if (value.string.isEmpty()) {
-                        throw exception("Empty result for arg " + foundArg.name + " at node " + node.getNodeName() + " in generator\n" + generatorElement);
+                        throw exception("Empty result for arg " + foundArg.name + " at node " + node.getNodeName() + " in generator " + generatorElement.name, generatorElement);
                     }
                 }
                 break;
@@ -107,7 +147,14 @@ public class XPathInput {
     }
 
     public String valueAt(Node node, String expression) {
-        List<Node> nodes = nodeList(node, expression);
+        return valueAt(Site.OTHER, node, expression);
+    }
+
+    public String valueAt(Site site, Node node, String expression) {
+        return firstValue(nodeList(site, node, expression));
+    }
+
+    private static String firstValue(List<Node> nodes) {
         if (nodes.isEmpty()) {
             return "";
         }
@@ -119,13 +166,21 @@ public class XPathInput {
     }
 
     public int countNodes(Node node, String expression) {
-        List<Node> nodes = nodeList(node, expression);
+        return countNodes(Site.OTHER, node, expression);
+    }
+
+    public int countNodes(Site site, Node node, String expression) {
+        List<Node> nodes = nodeList(site, node, expression);
         return nodes.size();
     }
 
     public List<Node> nodeList(Node node, X3ML.Source source) {
+        return nodeList(Site.OTHER, node, source);
+    }
+
+    public List<Node> nodeList(Site site, Node node, X3ML.Source source) {
         if (source != null) {
-            return nodeList(node, source.expression);
+            return nodeList(site, node, source.expression);
         } else {
             List<Node> list = new ArrayList<Node>(1);
             list.add(node);
@@ -134,14 +189,31 @@ public class XPathInput {
     }
 
     public List<Node> nodeList(Node context, String expression) {
+        return nodeList(Site.OTHER, context, expression);
+    }
 
+    public List<Node> nodeList(Site site, Node context, String expression) {
+        return evaluate(site, context, expression);
+    }
+
+    /**
+     * @param site where from, or null when the time is part of an evaluation recorded by the caller
+     */
+    private List<Node> evaluate(Site site, Node context, String expression) {
         if (expression == null || expression.length() == 0) {
             List<Node> list = new ArrayList<Node>(1);
             list.add(context);
             return list;
         }
         try {
-            XPathExpression xe = xpath().compile(expression);
+            long start = stats == null ? 0 : System.nanoTime();
+            XPathExpression xe = expressionCache.get(expression);
+            boolean cached = xe != null;
+            metrics.expressionCache(cached);
+            if (xe == null) {
+                xe = xpath().compile(expression);
+                expressionCache.put(expression, xe);
+            }
 
             NodeList nodeList = (NodeList) xe.evaluate(context, XPathConstants.NODESET);
             int nodesReturned = nodeList.getLength();
@@ -149,6 +221,9 @@ public class XPathInput {
             for (int index = 0; index < nodesReturned; index++) {
                 list.add(nodeList.item(index));
             }
+            if (stats != null && site != null) {
+                stats.record(site, expression, System.nanoTime() - start, nodesReturned, cached);
+            }
             return list;
         } catch (XPathExpressionException e) {
             throw new RuntimeException("XPath Problem: " + expression, e);
@@ -165,6 +240,8 @@ public class XPathInput {
         if (rangeExpression == null || rangeExpression.length() == 0) {
             throw exception("Range expression missing");
         }
+        long start = stats == null ? 0 : System.nanoTime();
+        int cachedMaps = rangeMapCache.size();
         Map<String, List<Node>> rangeMap = getRangeMap(
                 rootNode,
                 domainExpression,
@@ -172,8 +249,12 @@ public class XPathInput {
                 rangeExpression,
                 rangeKeyPath
         );
-
-        return rangeMap.get(domainValue);
+        List<Node> nodes = rangeMap.get(domainValue);
+        if (stats != null) {
+            stats.record(Site.JOIN_KEY, rangeExpression + " == " + rangeKeyPath, System.nanoTime() - start,
+                    nodes == null ? 0 : nodes.size(), cachedMaps == rangeMapCache.size());
+        }
+        return nodes;
     }
 
     private Map<String, List<Node>> getRangeMap(
@@ -189,8 +270,11 @@ public class XPathInput {
         if (map == null) {
             map = new HashMap<String, List<Node>>();
             rangeMapCache.put(mapName, map);
-            for (Node node : nodeList(context, rangeExpression)) {
-                String key = valueAt(node, rangeKeyPath);
+            long entries = 0, characters = 0;
+            for (Node node : evaluate(null, context, rangeExpression)) { // counted in the time of the join
+                String key = firstValue(evaluate(null, node, rangeKeyPath));
+                entries++;
+                characters += key.length();
                 List<Node> value = map.get(key);
 
                 if (value == null) {
@@ -200,6 +284,10 @@ public class XPathInput {
                 value.add(node);
 
             }
+            metrics.joinIndex(map.size());
+            if (memory != null) {
+                memory.add(MemoryReport.Structure.JOIN_INDEX, entries, characters);
+            }
 //            Logger log = Logger.getLogger("getRangeMap");
 //            log.info("Built Map! " + mapName);
 //            for (Map.Entry<String, List<Node>> entry : map.entrySet()) {
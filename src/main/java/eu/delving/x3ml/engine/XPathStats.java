@@ -0,0 +1,147 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How often every distinct xpath expression was evaluated, and from where:
+ * its total and longest time, how many nodes it found, and how often the
+ * compiled expression or the join index was already there.
+ * <p/>
+ * Like the profile, one execution fills its own statistics and the engine
+ * merges them into its total afterwards.
+ */
+
+public class XPathStats {
+    private final Map<Site, Map<String, Entry>> entries = new EnumMap<Site, Map<String, Entry>>(Site.class);
+
+    public enum Site {
+        DOMAIN,
+        PATH,
+        RANGE,
+        ARGUMENT,
+        CONDITION,
+        JOIN_KEY,
+        OTHER // callers which do not say where from
+    }
+
+    public static class Entry {
+        public final Site site;
+        public final String expression;
+        public long evaluations, nanos, maxNanos, results, maxResults, cacheHits;
+
+        private Entry(Site site, String expression) {
+            this.site = site;
+            this.expression = expression;
+        }
+
+        private void add(Entry other) {
+            evaluations += other.evaluations;
+            nanos += other.nanos;
+            maxNanos = Math.max(maxNanos, other.maxNanos);
+            results += other.results;
+            maxResults = Math.max(maxResults, other.maxResults);
+            cacheHits += other.cacheHits;
+        }
+    }
+
+    public XPathStats() {
+        for (Site site : Site.values()) {
+            entries.put(site, new HashMap<String, Entry>());
+        }
+    }
+
+    void record(Site site, String expression, long nanos, int results, boolean cached) {
+        Entry entry = entry(site, expression);
+        entry.evaluations++;
+        entry.nanos += nanos;
+        if (nanos > entry.maxNanos) {
+            entry.maxNanos = nanos;
+        }
+        entry.results += results;
+        if (results > entry.maxResults) {
+            entry.maxResults = results;
+        }
+        if (cached) {
+            entry.cacheHits++;
+        }
+    }
+
+    public synchronized void merge(XPathStats execution) {
+        for (Map<String, Entry> map : execution.entries.values()) {
+            for (Entry entry : map.values()) {
+                entry(entry.site, entry.expression).add(entry);
+            }
+        }
+    }
+
+    /**
+     * @return copies of the entries, the most time first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> copies = new ArrayList<Entry>();
+        for (Map<String, Entry> map : entries.values()) {
+            for (Entry entry : map.values()) {
+                Entry copy = new Entry(entry.site, entry.expression);
+                copy.add(entry);
+                copies.add(copy);
+            }
+        }
+        Collections.sort(copies, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.nanos < b.nanos ? 1 : a.nanos > b.nanos ? -1 : 0;
+            }
+        });
+        return copies;
+    }
+
+    /**
+     * @param top how many expressions to show
+     * @return a table of the expressions which took the most time
+     */
+    public String report(int top) {
+        StringBuilder out = new StringBuilder(String.format(
+                "%-10s %10s %12s %10s %10s %10s %10s  %s%n",
+                "site", "count", "total ms", "max ms", "mean size", "max size", "cached", "expression"
+        ));
+        List<Entry> list = getEntries();
+        for (Entry entry : list.subList(0, Math.min(top, list.size()))) {
+            out.append(String.format(
+                    "%-10s %10d %12.3f %10.3f %10.1f %10d %10d  %s%n",
+                    entry.site, entry.evaluations, entry.nanos / 1e6, entry.maxNanos / 1e6,
+                    entry.results / (double) entry.evaluations, entry.maxResults, entry.cacheHits, entry.expression
+            ));
+        }
+        return out.toString();
+    }
+
+    private Entry entry(Site site, String expression) {
+        Map<String, Entry> map = entries.get(site);
+        Entry entry = map.get(expression);
+        if (entry == null) {
+            map.put(expression, entry = new Entry(site, expression));
+        }
+        return entry;
+    }
+}
@@ -6,7 +6,6 @@
 package gr.forth;
 
 import eu.delving.x3ml.X3MLGeneratorPolicy;
-import java.util.Date;
 
 /**
  *
@@ -48,22 +47,6 @@ public class BMdates implements X3MLGeneratorPolicy.CustomGenerator {
     }
 
     private static String getFormatedDate(String bounds, String time_str) {
-        String xsdDate = "";
-
-        try {
-            System.out.println("Input date: " + time_str);
-            Date formatDate = UtilsTime.validate(time_str, bounds);
-            if (formatDate != null) {
-                xsdDate = UtilsTime.convertStringoXSDString(formatDate);
-                System.out.println("xsdDate->" + xsdDate);
-            } else {
-                xsdDate = "Unknown-Format";
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-      
-        return xsdDate;
-       
+        return DateCache.shared().get(time_str, bounds);
     }
 }
@@ -0,0 +1,119 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package gr.forth;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers interpreted dates, since source data repeats the same few date
+ * strings over and over. One map per bound, bounded by throwing a map away
+ * when it fills up, which is cheap and good enough for repetitive data.
+ * <p/>
+ * Every date and every date which is not understood is handed to the
+ * listener, if there is one. The engine counts and traces them, unless
+ * turned off with -Dgr.forth.dates.log=false.
+ */
+public class DateCache {
+
+    public static final String UNKNOWN_FORMAT = "Unknown-Format";
+    public static final int DEFAULT_CAPACITY = 10000;
+    private static final DateCache SHARED = new DateCache(Integer.getInteger("gr.forth.dates.cache", DEFAULT_CAPACITY));
+    private static volatile boolean logging = !"false".equals(System.getProperty("gr.forth.dates.log"));
+    private static volatile Listener listener;
+    private final int capacity;
+    private volatile ConcurrentMap<String, String> lower = new ConcurrentHashMap<String, String>();
+    private volatile ConcurrentMap<String, String> upper = new ConcurrentHashMap<String, String>();
+
+    public DateCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public static DateCache shared() {
+        return SHARED;
+    }
+
+    public static boolean isLogging() {
+        return logging;
+    }
+
+    public static void setLogging(boolean logging) {
+        DateCache.logging = logging;
+    }
+
+    public static void setListener(Listener listener) {
+        DateCache.listener = listener;
+    }
+
+    public interface Listener {
+
+        void unknown(String text);
+
+        void interpreted(String text, String xsdDate);
+    }
+
+    /**
+     * @param text the date as it appears in the source
+     * @param bound "Lower" or "Upper"
+     * @return the xsd:dateTime lexical form, UNKNOWN_FORMAT, or an empty string if the date could not be handled at all
+     */
+    public String get(String text, String bound) {
+        if (text == null || bound == null) {
+            return ""; // as the date generators always answered
+        }
+        boolean isLower = "Lower".equals(bound);
+        ConcurrentMap<String, String> map = isLower ? lower : upper;
+        String xsdDate = map.get(text);
+        if (xsdDate == null) {
+            try {
+                xsdDate = UtilsTime.interpret(text, bound);
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+                return "";
+            }
+            if (xsdDate == null) {
+                xsdDate = UNKNOWN_FORMAT;
+            }
+            if (xsdDate == UNKNOWN_FORMAT && listener != null) {
+                listener.unknown(text);
+            }
+            if (map.size() >= capacity) {
+                map = new ConcurrentHashMap<String, String>();
+                if (isLower) {
+                    lower = map;
+                }
+                else {
+                    upper = map;
+                }
+            }
+            map.put(text, xsdDate);
+        }
+        if (listener != null) {
+            listener.interpreted(text, xsdDate);
+        }
+        return xsdDate;
+    }
+
+    public int size() {
+        return lower.size() + upper.size();
+    }
+
+    public void clear() {
+        lower = new ConcurrentHashMap<String, String>();
+        upper = new ConcurrentHashMap<String, String>();
+    }
+}
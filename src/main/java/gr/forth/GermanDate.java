@@ -18,8 +18,6 @@ package gr.forth;
 import eu.delving.x3ml.X3MLGeneratorPolicy.CustomGenerator;
 import eu.delving.x3ml.X3MLGeneratorPolicy.CustomGeneratorException;
 
-import java.util.Date;
-
 /**
  * an excample date interpreter
  */
@@ -60,24 +58,7 @@ public class GermanDate implements CustomGenerator {
     }
 
     private static String getFormatedDate(String bounds, String time_str) {
-        String xsdDate = "";
-        System.out.println("German");
-
-        try {
-            System.out.println("Input date: " + time_str);
-            Date formatDate = UtilsTime.validate(time_str, bounds);
-            if (formatDate != null) {
-                xsdDate = UtilsTime.convertStringoXSDString(formatDate);
-                System.out.println("xsdDate->" + xsdDate);
-            } else {
-                xsdDate = "Unknown-Format";
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-      
-        return xsdDate;
-       
+        return DateCache.shared().get(time_str, bounds);
     }
     
     
@@ -11,17 +11,22 @@ package gr.forth;
  */
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Date interpretation for the date generators.
+ * <p/>
+ * The patterns are compiled once and only read afterwards, and every call
+ * works on its own matcher, so the class is safe for parallel mapping. A
+ * single scan over the input decides which patterns can possibly match, so
+ * usually only one or two of them are actually tried.
+ */
 public class UtilsTime {
 
-    private static Pattern pattern;
-    private static Matcher matcher;
     private static final String swedishMonths[] = {"Januari", "Februari", "Mars", "April", "Maj", "Juni", "Juli", "Augusti", "September", "Oktober", "November", "December"};
     private static final String englishMonths[] = {"January", "February", "March", "April", "May", "June", "July", "August", "September", "October", "November", "December"};
     private static final String englishMonthsAbbr[] = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
@@ -40,6 +45,45 @@ public class UtilsTime {
         "(-?\\d{1,4})", /*(-)year */
         "(-?\\d{1,4})([-/.])(0?[1-9]|1[012])" /*(-)year/mm */};
 
+    private static final Pattern[] PATTERNS = new Pattern[DATE_PATTERNS.length];
+
+    static {
+        for (int walk = 0; walk < DATE_PATTERNS.length; walk++) {
+            PATTERNS[walk] = Pattern.compile(DATE_PATTERNS[walk]);
+        }
+    }
+
+    // candidate sets, as bit masks over DATE_PATTERNS
+    private static final int DAY_NUMERIC = 1 | 1 << 6;
+    private static final int DAY_MONTH_NAME = 1 << 1 | 1 << 2 | 1 << 3;
+    private static final int MONTH_NAME = 1 << 4 | 1 << 5;
+    private static final int YEAR = 1 << 7;
+    private static final int YEAR_MONTH = 1 << 8;
+
+    // the Julian calendar ends at 4 October 1582, the Gregorian starts at 15 October 1582
+    private static final int CUTOVER_YEAR = 1582;
+    private static final int CUTOVER_MONTH = 10;
+    private static final int CUTOVER_GAP_START = 5;
+    private static final int CUTOVER_GAP = 10;
+
+    /**
+     * The fields of a recognized date, before any bound is applied. Absent
+     * month or day are zero, absent time fields are -1.
+     */
+    private static class Parsed {
+
+        final int year, month, day, hour, min, sec;
+
+        private Parsed(int year, int month, int day, int hour, int min, int sec) {
+            this.year = year;
+            this.month = month;
+            this.day = day;
+            this.hour = hour;
+            this.min = min;
+            this.sec = sec;
+        }
+    }
+
     /**
      * Validate date format with regular expression
      *
@@ -47,145 +91,262 @@ public class UtilsTime {
      * @return true valid date fromat, false invalid date format
      */
     public static Date validate(String date, String bound) {
-        Date formatDate = null;
-        String month = "";
-        String day = "";
-        int year = 0;
-        int hour = -1;
-        int min = -1;
-        int sec = -1;
-
-        boolean isValid = false;
-        for (int i = 0; i < DATE_PATTERNS.length; i++) {
-            String DATE_PATTERN = DATE_PATTERNS[i];
-            pattern = Pattern.compile(DATE_PATTERN);
-            matcher = pattern.matcher(date);
-
-            if (matcher.matches()) {
-                matcher.reset();
-
-                if (matcher.find()) {
-                    isValid = true;
-                    String g1 = "";
-                    String g2 = "";
-                    String g3 = "";
-                    String g4 = "";
-
-                    if (matcher.group(1) != null) {
-                        g1 = matcher.group(1);
-                    }
-                    try {
-                        if (matcher.group(3) != null) {
-                            g2 = matcher.group(3);
-                        }
-
-                        if (matcher.group(4) != null) {
-                            g3 = matcher.group(4);
-                        }
-                        if (matcher.group(5) != null) {
-                            g4 = matcher.group(5);
-                            g4 = g4.replaceAll("\\s+", "");
-                            hour = Integer.parseInt(g4.split(":")[0]);
-                            min = Integer.parseInt(g4.split(":")[1]);
-                            if (g4.split(":").length == 3) {
-                                sec = Integer.parseInt(g4.split(":")[2]);
-                            }
-                        }
-                    } catch (java.lang.IndexOutOfBoundsException e) {
-
-                    }
-
-                    if (i <= 3) {
-                        year = Integer.parseInt(g3);
-                        month = g2;
-                        day = g1;
-
-                    } else if (i >= 4 && i <= 5) {
-                        year = Integer.parseInt(g2);
-                        month = g1;
-                    } else {
-                        if (matcher.group(1) != null) {
-                            year = Integer.parseInt(g1);
-                            month = g2;
-                            day = g3;
-                        }
-                    }
-
-                    if (day.equals("31")
-                            && (month.equals("4") || month.equals("6") || month.equals("9")
-                            || month.equals("11") || month.equals("04") || month.equals("06")
-                            || month.equals("09"))) {
-                        isValid = false; // only 1,3,5,7,8,10,12 has 31 days
-                    } else if (month.equals("2") || month.equals("02")) {
-                        //leap year
-                        if (year % 4 == 0) {
-                            if (day.equals("30") || day.equals("31")) {
-                                isValid = false;
-                            }
-                        } else {
-                            if (day.equals("29") || day.equals("30") || day.equals("31")) {
-                                isValid = false;
-                            }
-                        }
-                    }
-                    if (isValid) {
-                        break;
-                    }
-                } else {
-                    isValid = false;
-                }
-            }
+        Parsed parsed = parse(date);
+        if (parsed == null) {
+            return null;
         }
+        if (bound.equals("Lower")) {
+            return getLowerDate(parsed);
+        } else {
+            return getUpperDate(parsed);
+        }
+    }
 
-        if (isValid) {
-
-            int index = Arrays.asList(swedishMonths).indexOf(month);
-            if (index == -1) {
-                index = Arrays.asList(englishMonths).indexOf(month);
-                if (index == -1) {
-                    index = Arrays.asList(englishMonthsAbbr).indexOf(month);
+    /**
+     * Interpret a date and produce the xsd:dateTime lexical form of its lower
+     * or upper bound directly, without going through Date and Calendar. The
+     * result is the same as convertStringoXSDString(validate(date, bound)).
+     *
+     * @param date the text to interpret
+     * @param bound "Lower" or "Upper"
+     * @return the lexical form, or null if the date is not recognized
+     */
+    public static String interpret(String date, String bound) {
+        Parsed parsed = parse(date);
+        if (parsed == null) {
+            return null;
+        }
+        int year = parsed.year;
+        int month = parsed.month;
+        int day = parsed.day;
+        int hour, min, sec;
+        if (bound.equals("Lower")) {
+            if (month == 0) {
+                month = 1;
+            }
+            if (day == 0) {
+                day = 1;
+            }
+            hour = parsed.hour == -1 ? 0 : parsed.hour;
+            min = parsed.hour == -1 ? 0 : parsed.min;
+            sec = parsed.sec == -1 ? 0 : parsed.sec;
+        } else {
+            if (month == 0) {
+                month = 12;
+                day = 31;
+            } else if (day == 0) {
+                day = daysInMonth(year, month);
+            }
+            hour = parsed.hour == -1 ? 23 : parsed.hour;
+            min = parsed.hour == -1 ? 59 : parsed.min;
+            sec = parsed.sec == -1 ? 59 : parsed.sec;
+        }
+        // lenient overflow, as a Calendar would do for "31 April" or "30 February"
+        int days = daysInMonth(year, month);
+        if (day > days) {
+            day -= days;
+            month++;
+        }
+        if (year == CUTOVER_YEAR && month == CUTOVER_MONTH
+                && day >= CUTOVER_GAP_START && day < CUTOVER_GAP_START + CUTOVER_GAP) {
+            day += CUTOVER_GAP; // these days were skipped in 1582
+        }
+        StringBuilder out = new StringBuilder(21);
+        if (year < 0) {
+            out.append('-');
+        }
+        int absYear = Math.abs(year);
+        if (absYear < 1000) {
+            out.append('0');
+            if (absYear < 100) {
+                out.append('0');
+                if (absYear < 10) {
+                    out.append('0');
                 }
             }
+        }
+        out.append(absYear).append('-');
+        twoDigits(out, month).append('-');
+        twoDigits(out, day).append('T');
+        twoDigits(out, hour).append(':');
+        twoDigits(out, min).append(':');
+        twoDigits(out, sec);
+        return out.toString();
+    }
 
-            if (index != -1) {
-                month = "0" + String.valueOf(index + 1);
+    private static Parsed parse(String date) {
+        int candidates = candidates(date);
+        for (int i = 0; candidates != 0; i++, candidates >>>= 1) {
+            if ((candidates & 1) == 0) {
+                continue;
+            }
+            Matcher matcher = PATTERNS[i].matcher(date);
+            if (!matcher.matches()) {
+                continue;
             }
-            if (bound.equals("Lower")) {
-                formatDate = getLowerDate(year, month, day, hour, min, sec);
+            int groups = matcher.groupCount();
+            String g1 = group(matcher, 1, groups);
+            String g2 = group(matcher, 3, groups);
+            String g3 = group(matcher, 4, groups);
+            String time = group(matcher, 5, groups);
+            int year, month, day = 0;
+            if (i <= 3) {
+                year = Integer.parseInt(g3);
+                month = i == 0 ? Integer.parseInt(g2) : month(g2);
+                day = Integer.parseInt(g1);
+            } else if (i <= 5) {
+                year = Integer.parseInt(g2);
+                month = month(g1);
             } else {
-                formatDate = getUpperDate(year, month, day, hour, min, sec);
+                year = Integer.parseInt(g1);
+                month = g2.isEmpty() ? 0 : Integer.parseInt(g2);
+                if (!g3.isEmpty()) {
+                    day = Integer.parseInt(g3);
+                }
             }
+            int hour = -1, min = -1, sec = -1;
+            if (!time.isEmpty()) {
+                hour = Integer.parseInt(matcher.group(6));
+                min = Integer.parseInt(matcher.group(7));
+                String seconds = matcher.group(8);
+                if (seconds != null) {
+                    sec = Integer.parseInt(seconds.substring(1));
+                }
+            }
+            if (isNumericMonth(i) && !dayFits(year, month, day)) {
+                continue;
+            }
+            return new Parsed(year, month, day, hour, min, sec);
         }
-        return formatDate;
+        return null;
     }
 
-    private static Date getUpperDate(int year, String month, String day, int hour, int min, int sec) {
-        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+    /**
+     * One pass over the text to find the patterns it could possibly match.
+     * This may admit too many, but never too few.
+     */
+    private static int candidates(String date) {
+        int length = date.length();
+        if (length == 0) {
+            return 0;
+        }
+        char first = date.charAt(0);
+        if (Character.isLetter(first)) {
+            return MONTH_NAME;
+        }
+        boolean letters = false;
+        int separators = 0;
+        for (int walk = 1; walk < length; walk++) {
+            char c = date.charAt(walk);
+            if (Character.isLetter(c)) {
+                letters = true;
+            } else if (!Character.isDigit(c)) {
+                separators++;
+            }
+        }
+        if (letters) {
+            return first == '-' ? 0 : DAY_MONTH_NAME;
+        }
+        switch (separators) {
+            case 0:
+                return YEAR;
+            case 1:
+                return YEAR_MONTH;
+            default:
+                return DAY_NUMERIC;
+        }
+    }
 
-        if (day.equals("") && !month.equals("")) {
-            cal.set(Calendar.MONTH, Integer.parseInt(month) - 1);
-            cal.set(Calendar.YEAR, year);
-            cal.set(Calendar.DAY_OF_MONTH, 1);// This is necessary to get proper results
-            cal.set(Calendar.DATE, cal.getActualMaximum(Calendar.DATE));
-        } else {
+    private static String group(Matcher matcher, int group, int groups) {
+        if (group > groups) {
+            return "";
+        }
+        String value = matcher.group(group);
+        return value == null ? "" : value;
+    }
 
-            if (month.equals("") && day.equals("")) {
-                month = "12";
-                day = "31";
+    private static boolean isNumericMonth(int pattern) {
+        return pattern == 0 || pattern == 6;
+    }
 
+    // only 1,3,5,7,8,10,12 has 31 days, and february depends on the leap year
+    private static boolean dayFits(int year, int month, int day) {
+        if (day == 31 && (month == 4 || month == 6 || month == 9 || month == 11)) {
+            return false;
+        }
+        if (month == 2) {
+            return day < (year % 4 == 0 ? 30 : 29);
+        }
+        return true;
+    }
+
+    private static int month(String name) {
+        int index = indexOf(swedishMonths, name);
+        if (index == -1) {
+            index = indexOf(englishMonths, name);
+            if (index == -1) {
+                index = indexOf(englishMonthsAbbr, name);
             }
-            cal.set(Calendar.MONTH, Integer.parseInt(month) - 1);
-            cal.set(Calendar.YEAR, year);
-            cal.set(Calendar.DAY_OF_MONTH, Integer.parseInt(day));// This is necessary to get proper results
         }
-        if (hour != -1) {
-            cal.set(Calendar.HOUR_OF_DAY, hour);
-            cal.set(Calendar.MINUTE, min);
-            if (sec != -1) {
-                cal.set(Calendar.SECOND, sec);
-            } else {
-                cal.set(Calendar.SECOND, cal.getMaximum(Calendar.SECOND));
+        return index + 1;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int walk = 0; walk < names.length; walk++) {
+            if (names[walk].equals(name)) {
+                return walk;
             }
+        }
+        return -1;
+    }
+
+    private static boolean isJulian(int year, int month) {
+        return year < CUTOVER_YEAR || (year == CUTOVER_YEAR && month < CUTOVER_MONTH);
+    }
+
+    private static boolean isLeapYear(int year, int month) {
+        if (isJulian(year, month)) {
+            return year % 4 == 0;
+        }
+        return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year, month) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static StringBuilder twoDigits(StringBuilder out, int value) {
+        return out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static Date getUpperDate(Parsed parsed) {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.set(Calendar.YEAR, parsed.year);
+        if (parsed.day == 0 && parsed.month != 0) {
+            cal.set(Calendar.MONTH, parsed.month - 1);
+            cal.set(Calendar.DAY_OF_MONTH, 1);// This is necessary to get proper results
+            cal.set(Calendar.DATE, cal.getActualMaximum(Calendar.DATE));
+        } else if (parsed.month == 0) {
+            cal.set(Calendar.MONTH, Calendar.DECEMBER);
+            cal.set(Calendar.DAY_OF_MONTH, 31);
+        } else {
+            cal.set(Calendar.MONTH, parsed.month - 1);
+            cal.set(Calendar.DAY_OF_MONTH, parsed.day);
+        }
+        if (parsed.hour != -1) {
+            cal.set(Calendar.HOUR_OF_DAY, parsed.hour);
+            cal.set(Calendar.MINUTE, parsed.min);
+            cal.set(Calendar.SECOND, parsed.sec != -1 ? parsed.sec : cal.getMaximum(Calendar.SECOND));
         } else {
             cal.set(Calendar.HOUR_OF_DAY, cal.getMaximum(Calendar.HOUR_OF_DAY));
             cal.set(Calendar.MINUTE, cal.getMaximum(Calendar.MINUTE));
@@ -194,26 +355,15 @@ public class UtilsTime {
         return cal.getTime();
     }
 
-    private static Date getLowerDate(int year, String month, String day, int hour, int min, int sec) {
-
-        if (month.equals("") && day.equals("")) {
-            month = "01";
-            day = "01";
-        } else if (day.equals("")) {
-            day = "01";
-        }
+    private static Date getLowerDate(Parsed parsed) {
         Calendar c = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
-        c.set(Calendar.YEAR, year);
-        c.set(Calendar.MONTH, Integer.parseInt(month) - 1); //months start from zero!
-        c.set(Calendar.DAY_OF_MONTH, Integer.parseInt(day));
-        if (hour != -1) {
-            c.set(Calendar.HOUR_OF_DAY, hour);
-            c.set(Calendar.MINUTE, min);
-            if (sec != -1) {
-                c.set(Calendar.SECOND, sec);
-            } else {
-                c.set(Calendar.SECOND, c.getActualMinimum(Calendar.SECOND));
-            }
+        c.set(Calendar.YEAR, parsed.year);
+        c.set(Calendar.MONTH, parsed.month == 0 ? 0 : parsed.month - 1); //months start from zero!
+        c.set(Calendar.DAY_OF_MONTH, parsed.day == 0 ? 1 : parsed.day);
+        if (parsed.hour != -1) {
+            c.set(Calendar.HOUR_OF_DAY, parsed.hour);
+            c.set(Calendar.MINUTE, parsed.min);
+            c.set(Calendar.SECOND, parsed.sec != -1 ? parsed.sec : c.getActualMinimum(Calendar.SECOND));
         } else {
             c.set(Calendar.HOUR_OF_DAY, c.getActualMinimum(Calendar.HOUR_OF_DAY));
             c.set(Calendar.MINUTE, c.getActualMinimum(Calendar.MINUTE));
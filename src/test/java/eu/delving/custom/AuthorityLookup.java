@@ -0,0 +1,104 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+
+package eu.delving.custom;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static eu.delving.x3ml.X3MLGeneratorPolicy.AsyncCustomGenerator;
+import static eu.delving.x3ml.X3MLGeneratorPolicy.CustomGeneratorException;
+
+/**
+ * an example asynchronous generator, resolving labels against an in-process
+ * stand-in for an authority service which answers after a short delay
+ */
+
+public class AuthorityLookup implements AsyncCustomGenerator {
+
+    public static final String AUTHORITY = "http://authority.example.com/";
+    public static final AtomicInteger requests = new AtomicInteger();
+    public static final AtomicInteger pending = new AtomicInteger();
+    public static final AtomicInteger maxPending = new AtomicInteger();
+    public static volatile long latency = 10;
+
+    private static final ExecutorService SERVICE = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "fake-authority");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private String text;
+
+    public static void reset() {
+        requests.set(0);
+        pending.set(0);
+        maxPending.set(0);
+    }
+
+    @Override
+    public void setArg(String name, String value) throws CustomGeneratorException {
+        if ("text".equals(name)) {
+            text = value;
+        }
+        else {
+            throw new CustomGeneratorException("Unrecognized argument name: " + name);
+        }
+    }
+
+    @Override
+    public Future<String> requestValue() throws CustomGeneratorException {
+        if (text == null) {
+            throw new CustomGeneratorException("Missing text argument");
+        }
+        final String label = text;
+        requests.incrementAndGet();
+        int now = pending.incrementAndGet();
+        while (true) {
+            int max = maxPending.get();
+            if (now <= max || maxPending.compareAndSet(max, now)) {
+                break;
+            }
+        }
+        return SERVICE.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    Thread.sleep(latency);
+                    if (label.startsWith("unknown")) {
+                        throw new IllegalArgumentException("No authority for " + label);
+                    }
+                    return AUTHORITY + label.toLowerCase().replace(' ', '_');
+                }
+                finally {
+                    pending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    @Override
+    public String getValueType() throws CustomGeneratorException {
+        return "URI";
+    }
+}
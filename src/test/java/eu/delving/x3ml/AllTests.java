@@ -18,6 +18,8 @@ package eu.delving.x3ml;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import eu.delving.x3ml.engine.Generator;
+import gr.forth.TestDateCache;
+import gr.forth.TestUtilsTime;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.w3c.dom.Element;
@@ -64,7 +66,28 @@ import static org.junit.Assert.assertTrue;
         TestBM.class,
         TestRijks.class,
         TestGML.class,
-        TestDoubleJoin.class
+        TestDoubleJoin.class,
+        TestNativeGenerators.class,
+        TestBatchGenerator.class,
+        TestAsyncGenerator.class,
+        TestGeneratorCache.class,
+        TestX3MLValidator.class,
+        TestConcurrentLoad.class,
+        TestDiagnostics.class,
+        TestPlanSnapshot.class,
+        TestSourceProjection.class,
+        TestServer.class,
+        TestReloadableMapping.class,
+        TestInputCatalog.class,
+        TestProfile.class,
+        TestXPathStats.class,
+        TestMetrics.class,
+        TestStages.class,
+        TestMemoryReport.class,
+        TestCardinality.class,
+        TestSyntheticInput.class,
+        TestUtilsTime.class,
+        TestDateCache.class
 })
 public class AllTests {
     public static final String MISSING = "!expect :     ";
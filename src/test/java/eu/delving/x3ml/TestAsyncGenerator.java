@@ -0,0 +1,127 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.custom.AuthorityLookup;
+import eu.delving.x3ml.engine.Generator;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static eu.delving.x3ml.AllTests.documentBuilderFactory;
+import static eu.delving.x3ml.engine.X3ML.ArgValue;
+import static eu.delving.x3ml.engine.X3ML.GeneratedType;
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAsyncGenerator {
+
+    private static final String POLICY = "" +
+            "<generator_policy>\n" +
+            "  <generator name=\"Authority\">\n" +
+            "    <custom generatorClass=\"eu.delving.custom.AuthorityLookup\">\n" +
+            "      <set-arg name=\"text\"/>\n" +
+            "    </custom>\n" +
+            "  </generator>\n" +
+            "</generator_policy>";
+
+    private X3MLGeneratorPolicy policy;
+
+    @Before
+    public void setUp() throws UnsupportedEncodingException {
+        policy = X3MLGeneratorPolicy.load(new ByteArrayInputStream(POLICY.getBytes("UTF-8")), X3MLGeneratorPolicy.createUUIDSource(1));
+        policy.setDefaultArgType(SourceType.xpath);
+        policy.setLookupLimits(4, 5000);
+        AuthorityLookup.reset();
+    }
+
+    @Test
+    public void testSingle() {
+        assertTrue(policy.isBatchable("Authority"));
+        GeneratedValue value = policy.generate("Authority", args("Rembrandt van Rijn"));
+        assertEquals(GeneratedType.URI, value.type);
+        assertEquals(AuthorityLookup.AUTHORITY + "rembrandt_van_rijn", value.text);
+    }
+
+    @Test
+    public void testPipelined() {
+        List<Generator.ArgValues> rows = new ArrayList<Generator.ArgValues>();
+        for (int walk = 0; walk < 40; walk++) {
+            rows.add(args("Label " + walk));
+        }
+        List<GeneratedValue> values = policy.generate("Authority", rows);
+        assertEquals(40, values.size());
+        for (int walk = 0; walk < 40; walk++) {
+            assertEquals(AuthorityLookup.AUTHORITY + "label_" + walk, values.get(walk).text);
+        }
+        assertEquals(40, AuthorityLookup.requests.get());
+        assertTrue("lookups overlapped", AuthorityLookup.maxPending.get() > 1);
+        assertTrue("at most four outstanding", AuthorityLookup.maxPending.get() <= 4);
+    }
+
+    @Test
+    public void testFailure() {
+        List<Generator.ArgValues> rows = new ArrayList<Generator.ArgValues>();
+        for (int walk = 0; walk < 10; walk++) {
+            rows.add(args(walk == 3 ? "unknown" : "Label " + walk));
+        }
+        try {
+            policy.generate("Authority", rows);
+            fail();
+        }
+        catch (X3MLEngine.X3MLException e) {
+            assertEquals("Custom generator failure: eu.delving.custom.AuthorityLookup", e.getMessage());
+        }
+        assertTrue("stopped early", AuthorityLookup.requests.get() < 10);
+    }
+
+    @Test
+    public void testSamePathLookedUpOnce() throws Exception {
+        String mapping = "" +
+                "<x3ml version=\"1.0\" source_type=\"xpath\">\n" +
+                "  <namespaces><namespace prefix=\"crm\" uri=\"http://www.cidoc-crm.org/cidoc-crm/\"/></namespaces>\n" +
+                "  <mappings><mapping><domain>\n" +
+                "    <source_node>//NAME/text()</source_node>\n" +
+                "    <target_node><entity><type>crm:E39_Actor</type>\n" +
+                "      <instance_generator name=\"Authority\"><arg name=\"text\">.</arg></instance_generator>\n" +
+                "    </entity></target_node>\n" +
+                "  </domain></mapping></mappings>\n" +
+                "</x3ml>";
+        // the two text nodes on either side of the comment have the same node path, so they share one instance
+        String input = "<ROOT><NAME>Rembrandt<!-- comment -->van Rijn</NAME><NAME>Vermeer</NAME></ROOT>";
+        X3MLEngine engine = X3MLEngine.load(new ByteArrayInputStream(mapping.getBytes("UTF-8")));
+        Element root = documentBuilderFactory().newDocumentBuilder().parse(new ByteArrayInputStream(input.getBytes("UTF-8"))).getDocumentElement();
+        engine.execute(root, policy);
+        assertEquals(2, AuthorityLookup.requests.get());
+    }
+
+    private static Generator.ArgValues args(final String text) {
+        return new Generator.ArgValues() {
+            @Override
+            public ArgValue getArgValue(String name, SourceType sourceType) {
+                return "text".equals(name) ? new ArgValue(text, null) : null;
+            }
+        };
+    }
+}
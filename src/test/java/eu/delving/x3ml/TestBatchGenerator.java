@@ -0,0 +1,125 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.BatchGenerator;
+import eu.delving.x3ml.engine.Generator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static eu.delving.x3ml.engine.X3ML.ArgValue;
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestBatchGenerator {
+
+    private static final String POLICY = "" +
+            "<generator_policy>\n" +
+            "  <generator name=\"Coin\" prefix=\"ex\">\n" +
+            "    <pattern>coin/{id}</pattern>\n" +
+            "  </generator>\n" +
+            "  <generator name=\"Label\">\n" +
+            "    <pattern>coin {id}</pattern>\n" +
+            "  </generator>\n" +
+            "  <generator name=\"Dating\">\n" +
+            "    <custom generatorClass=\"gr.forth.BMdates\">\n" +
+            "      <set-arg name=\"bound\" type=\"constant\"/>\n" +
+            "      <set-arg name=\"text\"/>\n" +
+            "    </custom>\n" +
+            "  </generator>\n" +
+            "  <generator name=\"Other\">\n" +
+            "    <custom generatorClass=\"gr.forth.URIorUUID\">\n" +
+            "      <set-arg name=\"text\"/>\n" +
+            "    </custom>\n" +
+            "  </generator>\n" +
+            "</generator_policy>";
+
+    @Test
+    public void testBatchable() {
+        BatchGenerator policy = policy(1);
+        assertTrue(policy.isBatchable("Coin"));
+        assertTrue(policy.isBatchable("Label"));
+        assertTrue(policy.isBatchable("Dating"));
+        assertTrue(policy.isBatchable("Literal"));
+        assertFalse("test UUIDs are ordered", policy.isBatchable("UUID"));
+        assertFalse("test UUIDs are ordered", policy.isBatchable("URIorUUID"));
+        assertFalse("value type may be UUID", policy.isBatchable("Other"));
+        assertFalse(policy.isBatchable("Missing"));
+        assertTrue("random UUIDs", policy(0).isBatchable("UUID"));
+    }
+
+    @Test
+    public void testBatchMatchesSingle() {
+        BatchGenerator policy = policy(1);
+        policy.setNamespace("ex", "http://example.com/");
+        String[][] generators = {
+                {"Coin", "id"},
+                {"Label", "id"},
+                {"Dating", "text"},
+                {"UpperCase", "text"}
+        };
+        String[] texts = {"1804", "-116", "March 1850", "19 Nov 2007"};
+        for (String[] generator : generators) {
+            List<Generator.ArgValues> rows = new ArrayList<Generator.ArgValues>();
+            for (String text : texts) {
+                rows.add(args(generator[1], text));
+            }
+            List<GeneratedValue> values = policy.generate(generator[0], rows);
+            assertEquals(texts.length, values.size());
+            for (int walk = 0; walk < texts.length; walk++) {
+                GeneratedValue single = policy.generate(generator[0], rows.get(walk));
+                assertEquals(generator[0], single.text, values.get(walk).text);
+                assertEquals(generator[0], single.type, values.get(walk).type);
+            }
+        }
+    }
+
+    private static BatchGenerator policy(int uuidSize) {
+        try {
+            X3MLGeneratorPolicy policy = X3MLGeneratorPolicy.load(
+                    new ByteArrayInputStream(POLICY.getBytes("UTF-8")),
+                    X3MLGeneratorPolicy.createUUIDSource(uuidSize)
+            );
+            policy.setDefaultArgType(SourceType.xpath);
+            return policy;
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Generator.ArgValues args(final String name, final String value) {
+        return new Generator.ArgValues() {
+            @Override
+            public ArgValue getArgValue(String argName, SourceType sourceType) {
+                if (name.equals(argName)) {
+                    return new ArgValue(value, null);
+                }
+                if ("bound".equals(argName)) {
+                    return new ArgValue("Lower", null);
+                }
+                return null;
+            }
+        };
+    }
+}
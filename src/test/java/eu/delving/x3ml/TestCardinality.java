@@ -0,0 +1,76 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.Cardinality;
+import eu.delving.x3ml.engine.Profile;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCardinality {
+
+    @Test
+    public void testAgainstProfile() {
+        compare("/coin_a/04-appell.x3ml", "/coin_a/00-coin-input.xml");
+        compare("/double_join/doublejoin.x3ml", "/double_join/doubleinput.xml");
+    }
+
+    @Test
+    public void testSample() {
+        X3MLEngine engine = engine("/bm/BM20.x3ml");
+        Element source = document("/bm/BM20.xml");
+        Cardinality all = engine.dryRun(source, 0);
+        Cardinality sampled = engine.dryRun(source, 5);
+        assertEquals(all.getEntries().size(), sampled.getEntries().size());
+        for (int walk = 0; walk < all.getEntries().size(); walk++) {
+            Cardinality.Entry entry = all.getEntries().get(walk);
+            Cardinality.Entry sample = sampled.getEntries().get(walk);
+            assertFalse(entry.sampled);
+            assertTrue(sample.where, sample.sampled);
+        }
+        assertEquals(all.getEntries().get(1).contexts, sampled.getEntries().get(1).contexts);
+        assertTrue(all.toTable().contains("mapping 2 link 2"));
+    }
+
+    private static void compare(String x3ml, String input) {
+        X3MLEngine engine = engine(x3ml);
+        Cardinality cardinality = engine.dryRun(document(input), 0);
+        engine.setProfiling(true);
+        long triples = engine.execute(document(input), X3MLGeneratorPolicy.load(resource("/coin_a/00-generator-policy.xml"), X3MLGeneratorPolicy.createUUIDSource(2))).getModel().size();
+        Map<String, Profile.Entry> profiled = new HashMap<String, Profile.Entry>();
+        for (Profile.Entry entry : engine.getProfile().getEntries()) {
+            profiled.put(entry.where, entry);
+        }
+        for (Cardinality.Entry entry : cardinality.getEntries()) {
+            Profile.Entry profile = profiled.get(entry.where);
+            if (entry.where.contains("link")) {
+                assertEquals(entry.where, profile.ranges, entry.ranges);
+            }
+            else {
+                assertEquals(entry.where, profile.domains, entry.contexts);
+            }
+        }
+        assertTrue(cardinality.getTriples() >= triples);
+    }
+}
@@ -0,0 +1,76 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static eu.delving.x3ml.AllTests.resource;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The XStream instances are shared, so loading and saving must work from many
+ * threads at once.
+ */
+
+public class TestConcurrentLoad {
+    private static final String[] MAPPINGS = {
+            "/coin_a/01-coin-simple.x3ml",
+            "/coin_a/02-join.x3ml",
+            "/coin_a/04-appell.x3ml",
+            "/bm/BM20.x3ml"
+    };
+
+    @Test
+    public void testParallelLoad() throws Exception {
+        final List<String> expected = new ArrayList<String>();
+        for (String mapping : MAPPINGS) {
+            expected.add(X3MLEngine.load(resource(mapping)).toString());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int task = 0; task < 16; task++) {
+                final int which = task % MAPPINGS.length;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int round = 0; round < 10; round++) {
+                            X3MLEngine engine = X3MLEngine.load(resource(MAPPINGS[which]));
+                            X3MLGeneratorPolicy.load(resource("/coin_a/00-generator-policy.xml"), X3MLGeneratorPolicy.createUUIDSource(1));
+                            if (!expected.get(which).equals(engine.toString())) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertEquals(Boolean.TRUE, future.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
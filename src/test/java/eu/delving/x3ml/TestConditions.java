@@ -172,6 +172,7 @@ public class TestConditions implements X3ML {
         XStream xstream = new XStream(new PureJavaReflectionProvider(), new XppDriver(new NoNameCoder()));
         xstream.setMode(XStream.NO_REFERENCES);
         xstream.processAnnotations(X3ML.Condition.class);
+        xstream.allowTypesByWildcard(new String[]{"eu.delving.x3ml.**"});
         return xstream;
     }
 }
\ No newline at end of file
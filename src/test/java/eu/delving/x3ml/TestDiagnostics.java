@@ -0,0 +1,99 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.Diagnostics;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static eu.delving.x3ml.engine.Diagnostics.Event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestDiagnostics {
+
+    @Test
+    public void testLazyDetail() {
+        final AtomicInteger rendered = new AtomicInteger();
+        Object detail = new Object() {
+            @Override
+            public String toString() {
+                rendered.incrementAndGet();
+                return "<generator name=\"Expensive\"/>";
+            }
+        };
+        X3MLEngine.X3MLException exception = X3MLEngine.exception("Empty result", detail);
+        assertEquals(0, rendered.get());
+        assertEquals("Empty result\n<generator name=\"Expensive\"/>", exception.getMessage());
+        assertEquals("Empty result\n<generator name=\"Expensive\"/>", exception.getMessage());
+        assertEquals(1, rendered.get());
+    }
+
+    @Test
+    public void testTraceOffByDefault() {
+        final AtomicInteger rendered = new AtomicInteger();
+        assertFalse(Diagnostics.isTracing());
+        Diagnostics.trace("mapping 1 link 1", "path", new Object() {
+            @Override
+            public String toString() {
+                rendered.incrementAndGet();
+                return "path";
+            }
+        });
+        assertEquals(0, rendered.get());
+    }
+
+    @Test
+    public void testEventsCountedAndSampled() {
+        final AtomicInteger rendered = new AtomicInteger();
+        Object detail = new Object() {
+            @Override
+            public String toString() {
+                rendered.incrementAndGet();
+                return "domain";
+            }
+        };
+        Diagnostics.resetCounts();
+        for (int walk = 0; walk < 2 * Diagnostics.LOG_EVERY; walk++) {
+            Diagnostics.note(Event.UNRESOLVED_DOMAIN, detail);
+        }
+        assertEquals(2L * Diagnostics.LOG_EVERY, Diagnostics.getCount(Event.UNRESOLVED_DOMAIN));
+        assertEquals(Diagnostics.LOG_FIRST + 2, rendered.get());
+        assertEquals(Long.valueOf(2L * Diagnostics.LOG_EVERY), Diagnostics.getCounts().get(Event.UNRESOLVED_DOMAIN));
+        Diagnostics.resetCounts();
+        assertEquals(0, Diagnostics.getCount(Event.UNRESOLVED_DOMAIN));
+    }
+
+    @Test
+    public void testScopedCounts() {
+        Diagnostics.resetCounts();
+        Diagnostics.Counts request = new Diagnostics.Counts();
+        Diagnostics.openScope(request);
+        try {
+            Diagnostics.note(Event.NO_RESOURCES, "link");
+            Diagnostics.count(Event.DATE);
+        }
+        finally {
+            Diagnostics.closeScope();
+        }
+        assertEquals(1, request.get(Event.NO_RESOURCES));
+        assertEquals("No resources to link=1; Date=1;", request.toString());
+        assertTrue(Diagnostics.getCounts().isEmpty());
+    }
+}
@@ -0,0 +1,175 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.custom.AuthorityLookup;
+import eu.delving.x3ml.engine.Generator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static eu.delving.x3ml.engine.X3ML.ArgValue;
+import static eu.delving.x3ml.engine.X3ML.GeneratedType;
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestGeneratorCache {
+
+    private static final String POLICY = "" +
+            "<generator_policy>\n" +
+            "  <generator name=\"Authority\">\n" +
+            "    <custom generatorClass=\"eu.delving.custom.AuthorityLookup\">\n" +
+            "      <set-arg name=\"text\"/>\n" +
+            "    </custom>\n" +
+            "  </generator>\n" +
+            "</generator_policy>";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("generator", ".cache");
+        if (!file.delete()) {
+            throw new IOException("Could not prepare " + file);
+        }
+        AuthorityLookup.reset();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testWarmStart() {
+        GeneratorCache cache = GeneratorCache.open(file, 100);
+        String key = GeneratorCache.key("Gen", "some.Class", "text", "value");
+        cache.put(key, new GeneratedValue(GeneratedType.LITERAL, "hello", "en"));
+        cache.put(GeneratorCache.key("Gen", "some.Class", "text", "other"), new GeneratedValue(GeneratedType.URI, "http://x/"));
+        cache.close();
+        cache = GeneratorCache.open(file, 100);
+        assertEquals(2, cache.size());
+        GeneratedValue value = cache.get(key);
+        assertEquals(GeneratedType.LITERAL, value.type);
+        assertEquals("hello", value.text);
+        assertEquals("en", value.language);
+        assertNull(cache.get(GeneratorCache.key("Gen", "other.Class", "text", "value")));
+        cache.close();
+    }
+
+    @Test
+    public void testEviction() {
+        GeneratorCache cache = GeneratorCache.open(file, 10);
+        for (int walk = 0; walk < 5000; walk++) {
+            cache.put("key" + walk, new GeneratedValue(GeneratedType.URI, "http://x/" + walk));
+        }
+        assertEquals(10, cache.size());
+        cache.close();
+        assertEquals("log was compacted", true, file.length() < 3000 * 20);
+        cache = GeneratorCache.open(file, 10);
+        assertEquals(10, cache.size());
+        assertEquals("http://x/4999", cache.get("key4999").text);
+        cache.close();
+    }
+
+    @Test
+    public void testDamagedTail() throws IOException {
+        GeneratorCache cache = GeneratorCache.open(file, 100);
+        cache.put("one", new GeneratedValue(GeneratedType.URI, "http://x/1"));
+        cache.put("two", new GeneratedValue(GeneratedType.URI, "http://x/2"));
+        cache.close();
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[]{0, 5, 't', 'h'});
+        out.close();
+        cache = GeneratorCache.open(file, 100);
+        assertEquals(2, cache.size());
+        cache.put("three", new GeneratedValue(GeneratedType.URI, "http://x/3"));
+        cache.close();
+        cache = GeneratorCache.open(file, 100);
+        assertEquals(3, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void testForeignFileRefused() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("<rdf:RDF/>".getBytes("UTF-8"));
+        out.close();
+        try {
+            GeneratorCache.open(file, 100);
+            fail("Should refuse a file which is not a cache");
+        }
+        catch (X3MLEngine.X3MLException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Not a generator cache"));
+        }
+        assertEquals(10, file.length());
+        out = new FileOutputStream(file);
+        out.write(new byte[]{0, 22, 'X', '3'}); // a cache cut off in its header
+        out.close();
+        GeneratorCache cache = GeneratorCache.open(file, 100);
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void testFlushedWithoutClose() {
+        GeneratorCache cache = GeneratorCache.open(file, 100);
+        cache.put("one", new GeneratedValue(GeneratedType.URI, "http://x/1"));
+        GeneratorCache crashed = GeneratorCache.open(file, 100); // as if the first had never been closed
+        assertEquals("http://x/1", crashed.get("one").text);
+        crashed.close();
+        cache.close();
+    }
+
+    @Test
+    public void testRepeatedRun() throws IOException {
+        for (int run = 0; run < 2; run++) {
+            GeneratorCache cache = GeneratorCache.open(file, 100);
+            X3MLGeneratorPolicy policy = X3MLGeneratorPolicy.load(new ByteArrayInputStream(POLICY.getBytes("UTF-8")), X3MLGeneratorPolicy.createUUIDSource(1));
+            policy.setDefaultArgType(SourceType.xpath);
+            policy.setCache(cache);
+            List<Generator.ArgValues> rows = new ArrayList<Generator.ArgValues>();
+            for (int walk = 0; walk < 20; walk++) {
+                rows.add(args("Label " + walk));
+            }
+            List<GeneratedValue> values = policy.generate("Authority", rows);
+            assertEquals(AuthorityLookup.AUTHORITY + "label_7", values.get(7).text);
+            assertEquals(AuthorityLookup.AUTHORITY + "label_3", policy.generate("Authority", args("Label 3")).text);
+            cache.close();
+        }
+        assertEquals("second run looked nothing up", 20, AuthorityLookup.requests.get());
+    }
+
+    private static Generator.ArgValues args(final String text) {
+        return new Generator.ArgValues() {
+            @Override
+            public ArgValue getArgValue(String name, SourceType sourceType) {
+                return "text".equals(name) ? new ArgValue(text, null) : null;
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.Diagnostics;
+import eu.delving.x3ml.engine.InputCatalog;
+import eu.delving.x3ml.engine.SourceParser;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestInputCatalog {
+    private static final String RECORD = "" +
+            "<!DOCTYPE record PUBLIC \"-//Museum//Record//EN\" \"http://unreachable.invalid/dtd/record.dtd\">\n" +
+            "<record><owner>&museum;</owner></record>";
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("catalog", "");
+        directory.delete();
+        directory.mkdirs();
+        Diagnostics.resetCounts();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SourceParser.setCatalog(InputCatalog.fromSystemProperty());
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testUnknownSkipped() {
+        Element record = parse("" +
+                "<!DOCTYPE record SYSTEM \"http://unreachable.invalid/dtd/record.dtd\">\n" +
+                "<record><owner>Rijksmuseum</owner></record>");
+        assertEquals("Rijksmuseum", record.getTextContent());
+        assertEquals(1, Diagnostics.getCount(Diagnostics.Event.SKIPPED_ENTITY));
+    }
+
+    @Test
+    public void testMappingLanguageDTDNotUsed() {
+        Element record = parse("" +
+                "<!DOCTYPE record SYSTEM \"info.dtd\">\n" +
+                "<record><owner>Rijksmuseum</owner></record>");
+        assertEquals("Rijksmuseum", record.getTextContent());
+        assertEquals(1, Diagnostics.getCount(Diagnostics.Event.SKIPPED_ENTITY));
+    }
+
+    @Test
+    public void testSystemIdFileName() throws IOException {
+        FileUtils.writeStringToFile(new File(directory, "record.dtd"), "<!ENTITY museum \"Rijksmuseum\">", "UTF-8");
+        SourceParser.setCatalog(InputCatalog.of(directory));
+        for (int walk = 0; walk < 2; walk++) { // second time with the same parser
+            assertEquals("Rijksmuseum", parse(RECORD).getTextContent());
+        }
+        assertEquals(0, Diagnostics.getCount(Diagnostics.Event.SKIPPED_ENTITY));
+    }
+
+    @Test
+    public void testPublicIdProperties() throws IOException {
+        FileUtils.writeStringToFile(new File(directory, "museum.dtd"), "<!ENTITY museum \"British Museum\">", "UTF-8");
+        FileUtils.writeStringToFile(new File(directory, InputCatalog.PROPERTIES), "-//Museum//Record//EN = museum.dtd\n", "UTF-8");
+        SourceParser.setCatalog(InputCatalog.of(directory));
+        assertEquals("British Museum", parse(RECORD).getTextContent());
+    }
+
+    private static Element parse(String xml) {
+        try {
+            return SourceParser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
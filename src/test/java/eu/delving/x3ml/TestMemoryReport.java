@@ -0,0 +1,83 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.MemoryReport;
+import org.junit.Test;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMemoryReport {
+
+    @Test
+    public void testReport() {
+        X3MLEngine engine = engine("/coin_a/04-appell.x3ml");
+        engine.setMemoryAccounting(true, null);
+        X3MLEngine.Output output = engine.execute(document("/coin_a/00-coin-input.xml"), policy("/coin_a/00-generator-policy.xml"));
+        MemoryReport report = engine.getMemoryReport();
+        assertTrue(report.getCount(MemoryReport.Structure.DOM) > 0);
+        assertTrue(report.getCount(MemoryReport.Structure.GENERATED) > 0);
+        assertTrue(report.getPeakCount(MemoryReport.Structure.VARIABLES) >= report.getCount(MemoryReport.Structure.VARIABLES));
+        assertEquals(output.getModel().size(), report.getCount(MemoryReport.Structure.MODEL));
+        assertTrue(report.getPeakTotal() >= report.getPeakBytes(MemoryReport.Structure.DOM));
+        assertTrue(report.toString(), report.toString().contains("triples"));
+        engine.setMemoryAccounting(false, null);
+        assertNull(engine.getMemoryReport());
+    }
+
+    @Test
+    public void testSaveMemory() {
+        long plain = join(null).getModel().size();
+        X3MLEngine engine = engine("/double_join/doublejoin.x3ml");
+        engine.setMemoryAccounting(true, new MemoryReport.Limit(1, 0, MemoryReport.Action.SAVE_MEMORY));
+        assertEquals(plain, join(engine).getModel().size());
+        assertTrue(engine.getMemoryReport().getReleases() > 0);
+    }
+
+    @Test
+    public void testAbort() {
+        X3MLEngine engine = engine("/double_join/doublejoin.x3ml");
+        engine.setMemoryAccounting(true, MemoryReport.Limit.parse("abort:0"));
+        try {
+            join(engine);
+            fail();
+        }
+        catch (X3MLEngine.X3MLException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Memory limit abort:0 reached in mapping 1"));
+        }
+    }
+
+    @Test
+    public void testParse() {
+        MemoryReport.Limit limit = MemoryReport.Limit.parse("save:2048");
+        assertEquals(2048L << 20, limit.bytes);
+        assertEquals(MemoryReport.Action.SAVE_MEMORY, limit.action);
+        limit = MemoryReport.Limit.parse("abort:90%");
+        assertEquals(0.9, limit.heapFraction, 1e-9);
+        assertEquals("abort:90%", limit.toString());
+    }
+
+    private static X3MLEngine.Output join(X3MLEngine engine) {
+        if (engine == null) {
+            engine = engine("/double_join/doublejoin.x3ml");
+        }
+        return engine.execute(document("/double_join/doubleinput.xml"), X3MLGeneratorPolicy.load(resource("/coin_a/00-generator-policy.xml"), X3MLGeneratorPolicy.createUUIDSource(2)));
+    }
+}
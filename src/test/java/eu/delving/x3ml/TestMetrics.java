@@ -0,0 +1,96 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.LiveMetrics;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestMetrics {
+
+    @Test
+    public void testCounts() {
+        LiveMetrics metrics = new LiveMetrics();
+        X3MLEngine engine = engine("/coin_a/04-appell.x3ml");
+        engine.setMetrics(metrics);
+        long triples = 0;
+        for (int walk = 0; walk < 3; walk++) {
+            X3MLGeneratorPolicy policy = X3MLGeneratorPolicy.load(resource("/coin_a/00-generator-policy.xml"), X3MLGeneratorPolicy.createUUIDSource(2));
+            policy.setMetrics(metrics);
+            triples += engine.execute(document("/coin_a/00-coin-input.xml"), policy).getModel().size();
+        }
+        assertEquals(3, metrics.getRecords());
+        assertTrue(metrics.getTriples() >= triples);
+        assertTrue(metrics.getGeneratorCalls() > 0);
+        assertTrue(metrics.getExpressionCacheHitRate() > 0);
+        assertTrue(metrics.getTriplesPerSecond() > 0);
+        assertTrue(metrics.toString(), metrics.toString().startsWith("records 3 "));
+        metrics.reset();
+        assertEquals(0, metrics.getTriples());
+    }
+
+    @Test
+    public void testJoinIndex() {
+        LiveMetrics metrics = new LiveMetrics();
+        X3MLEngine engine = engine("/double_join/doublejoin.x3ml");
+        engine.setMetrics(metrics);
+        engine.execute(document("/double_join/doubleinput.xml"), X3MLGeneratorPolicy.load(resource("/coin_a/00-generator-policy.xml"), X3MLGeneratorPolicy.createUUIDSource(2)));
+        assertTrue(metrics.getJoinIndexes() > 0);
+        assertTrue(metrics.getLargestJoinIndex() > 0);
+        assertTrue(metrics.getJoinIndexKeys() >= metrics.getLargestJoinIndex());
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException {
+        final LiveMetrics metrics = new LiveMetrics();
+        Thread[] threads = new Thread[8];
+        for (int walk = 0; walk < threads.length; walk++) {
+            threads[walk] = new Thread() {
+                @Override
+                public void run() {
+                    for (int count = 0; count < 10000; count++) {
+                        metrics.triples(1);
+                        metrics.joinIndex(count);
+                    }
+                }
+            };
+            threads[walk].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, metrics.getTriples());
+        assertEquals(9999, metrics.getLargestJoinIndex());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        LiveMetrics metrics = new LiveMetrics();
+        metrics.register("test");
+        ObjectName name = new ObjectName("eu.delving.x3ml:type=Metrics,name=\"test\"");
+        metrics.record();
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Records"));
+        metrics.unregister();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,106 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.Generator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static eu.delving.x3ml.engine.X3ML.ArgValue;
+import static eu.delving.x3ml.engine.X3ML.GeneratedType;
+import static eu.delving.x3ml.engine.X3ML.GeneratedValue;
+import static eu.delving.x3ml.engine.X3ML.SourceType;
+import static org.junit.Assert.assertEquals;
+
+public class TestNativeGenerators {
+
+    private static final String POLICY = "" +
+            "<generator_policy>\n" +
+            "  <generator name=\"Dating\">\n" +
+            "    <custom generatorClass=\"gr.forth.BMdates\">\n" +
+            "      <set-arg name=\"bound\" type=\"constant\"/>\n" +
+            "      <set-arg name=\"text\"/>\n" +
+            "    </custom>\n" +
+            "  </generator>\n" +
+            "  <generator name=\"LowerCase\">\n" +
+            "    <pattern>lower {text}</pattern>\n" +
+            "  </generator>\n" +
+            "</generator_policy>";
+
+    @Test
+    public void testByName() {
+        Generator policy = policy(null);
+        assertValue(GeneratedType.URI, "http://example.com/x", policy.generate("URIorUUID", args("text", "http://example.com/x")));
+        assertValue(GeneratedType.URI, "urn:isbn:123", policy.generate("URIorUUID", args("text", "urn:isbn:123")));
+        assertValue(GeneratedType.URI, "uuid:A", policy.generate("URIorUUID", args("text", "Some Name")));
+        assertValue(GeneratedType.LITERAL, "a b c", policy.generate("Normalized", args("text", "  a \n b\tc ")));
+        assertValue(GeneratedType.LITERAL, "a b", policy.generate("LowerCase", args("text", "A  B")));
+        assertValue(GeneratedType.LITERAL, "A B", policy.generate("UpperCase", args("text", "a b")));
+        assertValue(GeneratedType.TYPED_LITERAL, "1850-12-31T23:59:59", policy.generate("DateBound", args("text", "1850", "bound", "Upper")));
+        policy.setNamespace("ex", "http://example.com/");
+        assertValue(GeneratedType.URI, "http://example.com/a9993e364706816aba3e25717850c26c9cd0d89d", policy.generate("HashURI", args("text", "abc", "prefix", "ex")));
+    }
+
+    @Test
+    public void testByClass() {
+        Generator policy = policy(POLICY);
+        assertValue(GeneratedType.TYPED_LITERAL, "-0116-01-01T00:00:00", policy.generate("Dating", args("text", "-116", "bound", "Lower")));
+        assertValue(GeneratedType.TYPED_LITERAL, "Unknown-Format", policy.generate("Dating", args("text", "19th century", "bound", "Lower")));
+    }
+
+    @Test
+    public void testPolicyOverridesName() {
+        Generator policy = policy(POLICY);
+        assertValue(GeneratedType.LITERAL, "lower ABC", policy.generate("LowerCase", args("text", "ABC")));
+    }
+
+    private static void assertValue(GeneratedType type, String text, GeneratedValue value) {
+        assertEquals(text, value.text);
+        assertEquals(type, value.type);
+    }
+
+    private static Generator policy(String xml) {
+        try {
+            Generator policy = X3MLGeneratorPolicy.load(
+                    xml == null ? null : new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                    X3MLGeneratorPolicy.createUUIDSource(1)
+            );
+            policy.setDefaultArgType(SourceType.xpath);
+            return policy;
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Generator.ArgValues args(String... nameValue) {
+        final Map<String, String> map = new TreeMap<String, String>();
+        for (int walk = 0; walk < nameValue.length; walk += 2) {
+            map.put(nameValue[walk], nameValue[walk + 1]);
+        }
+        return new Generator.ArgValues() {
+            @Override
+            public ArgValue getArgValue(String name, SourceType sourceType) {
+                String value = map.get(name);
+                return value == null ? null : new ArgValue(value, null);
+            }
+        };
+    }
+}
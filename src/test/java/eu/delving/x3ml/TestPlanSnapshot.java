@@ -0,0 +1,122 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPlanSnapshot {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("x3ml", "-snapshots");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not prepare " + directory);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSnapshotMapsTheSame() throws IOException {
+        File x3ml = copy("/coin_a/04-appell.x3ml");
+        File policy = copy("/coin_a/00-generator-policy.xml");
+        PlanSnapshot snapshot = new PlanSnapshot(directory);
+        assertTrue(snapshot.validate(x3ml).isEmpty());
+        String parsed = snapshot.loadEngine(x3ml).toString();
+        snapshot.loadPolicy(policy, X3MLGeneratorPolicy.createUUIDSource(1));
+        assertEquals(5, directory.listFiles().length); // two copies, two snapshots, one marker
+        for (File file : directory.listFiles()) {
+            assertTrue(file.getName(), file.getName().endsWith(".xml") || file.getName().endsWith(".x3ml") || file.getName().contains("-" + PlanSnapshot.MODEL + "."));
+        }
+        assertTrue(snapshot.validate(x3ml).isEmpty());
+        X3MLEngine engine = snapshot.loadEngine(x3ml);
+        assertEquals(parsed, engine.toString());
+        X3MLEngine.Output output = engine.execute(
+                document("/coin_a/00-coin-input.xml"),
+                snapshot.loadPolicy(policy, X3MLGeneratorPolicy.createUUIDSource(1))
+        );
+        List<String> diff = compareNTriples(xmlToNTriples("/coin_a/04-appell-rdf.xml"), output.toStringArray());
+        assertTrue("\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+    }
+
+    @Test
+    public void testDamagedSnapshotReplaced() throws IOException {
+        File x3ml = copy("/coin_a/01-coin-simple.x3ml");
+        PlanSnapshot snapshot = new PlanSnapshot(directory);
+        String parsed = snapshot.loadEngine(x3ml).toString();
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".x3ml.snapshot")) {
+                OutputStream out = new FileOutputStream(file);
+                out.write("damaged".getBytes("UTF-8"));
+                out.close();
+            }
+        }
+        assertEquals(parsed, snapshot.loadEngine(x3ml).toString());
+        assertEquals(parsed, snapshot.loadEngine(x3ml).toString());
+    }
+
+    @Test
+    public void testOtherModelIgnored() throws IOException {
+        File x3ml = copy("/coin_a/01-coin-simple.x3ml");
+        PlanSnapshot snapshot = new PlanSnapshot(directory);
+        String parsed = snapshot.loadEngine(x3ml).toString();
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".x3ml.snapshot")) { // as if written by an engine with another model
+                assertTrue(file.renameTo(new File(directory, file.getName().replace(PlanSnapshot.MODEL, "000000000000"))));
+            }
+        }
+        assertEquals(parsed, snapshot.loadEngine(x3ml).toString());
+        assertEquals(3, directory.listFiles().length); // the copy, the other snapshot and a new one
+    }
+
+    private File copy(String path) throws IOException {
+        File file = new File(directory, path.substring(path.lastIndexOf('/') + 1));
+        InputStream in = resource(path);
+        OutputStream out = new FileOutputStream(file);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,68 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.Profile;
+import org.junit.Test;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestProfile {
+
+    @Test
+    public void testMappingsAndLinks() {
+        X3MLEngine engine = engine("/coin_a/04-appell.x3ml");
+        assertNull(engine.getProfile());
+        engine.setProfiling(true);
+        long size = 0;
+        for (int walk = 0; walk < 2; walk++) {
+            size += engine.execute(document("/coin_a/00-coin-input.xml"), policy("/coin_a/00-generator-policy.xml")).getModel().size();
+        }
+        long mappingTriples = 0, linkRanges = 0, generatorCalls = 0;
+        for (Profile.Entry entry : engine.getProfile().getEntries()) {
+            assertEquals(entry.where, 0, entry.runs % 2);
+            if (entry.where.contains("link")) {
+                linkRanges += entry.ranges;
+            }
+            else {
+                mappingTriples += entry.triples;
+                assertTrue(entry.where, entry.domains > 0);
+            }
+            generatorCalls += entry.generatorCalls;
+        }
+        assertEquals(size, mappingTriples);
+        assertTrue(linkRanges > 0);
+        assertTrue(generatorCalls > 0);
+        assertTrue(engine.getProfile().toJSON().contains("\"where\": \"mapping 1 link 1\""));
+        assertTrue(engine.getProfile().toTable().startsWith("where"));
+    }
+
+    @Test
+    public void testJoin() {
+        X3MLEngine engine = engine("/double_join/doublejoin.x3ml");
+        engine.setProfiling(true);
+        engine.execute(document("/double_join/doubleinput.xml"), X3MLGeneratorPolicy.load(resource("/coin_a/00-generator-policy.xml"), X3MLGeneratorPolicy.createUUIDSource(2)));
+        long paths = 0;
+        for (Profile.Entry entry : engine.getProfile().getEntries()) {
+            paths += entry.paths;
+            assertEquals(entry.paths, entry.ranges);
+        }
+        assertTrue(paths > 0);
+    }
+}
@@ -0,0 +1,100 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReloadableMapping {
+
+    @Test
+    public void testSwap() throws Exception {
+        ReloadableMapping mapping = ReloadableMapping.load("coin", bytes("/coin_a/01-coin-simple.x3ml"), null);
+        ReloadableMapping.Plan first = mapping.current();
+        assertEquals(1, first.version);
+        ReloadableMapping.Plan second = mapping.reload(bytes("/coin_a/04-appell.x3ml"), bytes("/coin_a/00-generator-policy.xml")).get();
+        assertEquals(2, second.version);
+        assertSame(second, mapping.current());
+        assertSame(second, mapping.reload(bytes("/coin_a/04-appell.x3ml"), null).get());
+        expect(first, "/coin_a/01-coin-simple-rdf.xml"); // still usable by whoever started with it
+        expect(second, "/coin_a/04-appell-rdf.xml");
+    }
+
+    @Test
+    public void testFailedReloadKeepsPlan() throws Exception {
+        ReloadableMapping mapping = ReloadableMapping.load("coin", bytes("/coin_a/01-coin-simple.x3ml"), null);
+        try {
+            mapping.reload("<x3ml version=\"1.0\"><broken".getBytes("UTF-8"), null).get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            // expected
+        }
+        assertEquals(1, mapping.current().version);
+        expect(mapping.current(), "/coin_a/01-coin-simple-rdf.xml");
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        File file = File.createTempFile("mapping", ".x3ml");
+        try {
+            FileUtils.writeByteArrayToFile(file, bytes("/coin_a/01-coin-simple.x3ml"));
+            ReloadableMapping mapping = ReloadableMapping.load("watched", FileUtils.readFileToByteArray(file), null);
+            mapping.watch(file, null, 20);
+            FileUtils.writeByteArrayToFile(file, bytes("/coin_a/02-join.x3ml"));
+            file.setLastModified(file.lastModified() + 10000);
+            long end = System.currentTimeMillis() + 10000;
+            while (mapping.current().version == 1 && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            mapping.stopWatching();
+            assertEquals(2, mapping.current().version);
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static void expect(ReloadableMapping.Plan plan, String expected) {
+        String[] mappingResult = plan.execute(document("/coin_a/00-coin-input.xml"), X3MLGeneratorPolicy.createUUIDSource(1)).toStringArray();
+        List<String> diff = compareNTriples(xmlToNTriples(expected), mappingResult);
+        assertTrue("\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+    }
+
+    private static byte[] bytes(String path) throws IOException {
+        InputStream in = resource(path);
+        try {
+            return IOUtils.toByteArray(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestServer {
+    private X3MLServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testMapping() throws IOException {
+        server = X3MLServer.start(0, 2, 60000);
+        String mapping = post("/mapping?validate=true", "/coin_a/04-appell.x3ml", 200);
+        assertEquals(mapping, post("/mapping", "/coin_a/04-appell.x3ml", 200));
+        String policy = post("/policy", "/coin_a/00-generator-policy.xml", 200);
+        for (int walk = 0; walk < 3; walk++) {
+            String rdf = post("/map?format=application/n-triples&uuidTestSize=1&mapping=" + mapping + "&policy=" + policy, "/coin_a/00-coin-input.xml", 200);
+            List<String> diff = compareNTriples(xmlToNTriples("/coin_a/04-appell-rdf.xml"), rdf.split("\n"));
+            assertTrue("\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+        }
+        assertTrue(get("/status").contains("mapped=3"));
+    }
+
+    @Test
+    public void testRefusals() throws IOException {
+        server = X3MLServer.start(0, 1, 1);
+        post("/map?mapping=unknown", "/coin_a/00-coin-input.xml", 404);
+        String mapping = post("/mapping", "/bm/BM20.x3ml", 200);
+        String policy = post("/policy", "/bm/BM20-gen-policy.xml", 200);
+        post("/map?mapping=" + mapping + "&policy=" + policy, "/bm/BM20.xml", 504);
+        assertTrue(get("/status").contains("timedOut=1"));
+    }
+
+    @Test
+    public void testOverload() throws Exception {
+        server = X3MLServer.start(0, 1, 60000);
+        final String mapping = post("/mapping", "/bm/BM20.x3ml", 200);
+        final String policy = post("/policy", "/bm/BM20-gen-policy.xml", 200);
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        List<Future<Integer>> codes = new ArrayList<Future<Integer>>();
+        for (int walk = 0; walk < 16; walk++) {
+            codes.add(clients.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return code("/map?mapping=" + mapping + "&policy=" + policy, "/bm/BM20.xml");
+                }
+            }));
+        }
+        int refused = 0;
+        for (Future<Integer> code : codes) {
+            if (code.get() == 503) {
+                refused++;
+            }
+            else {
+                assertEquals(200, code.get().intValue());
+            }
+        }
+        clients.shutdown();
+        assertTrue("refused " + refused, refused > 0);
+        String status = get("/status"); // the client may retry a refused request on a closed connection, so not equal
+        assertTrue(status, !status.contains("rejected=0 "));
+    }
+
+    @Test
+    public void testInterrupted() {
+        X3MLEngine engine = engine("/bm/BM20.x3ml");
+        Thread.currentThread().interrupt();
+        try {
+            engine.execute(document("/bm/BM20.xml"), policy("/bm/BM20-gen-policy.xml"));
+            fail("Should stop when interrupted");
+        }
+        catch (X3MLEngine.X3MLException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Interrupted"));
+        }
+        finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testNamedReload() throws IOException {
+        server = X3MLServer.start(0, 2, 60000);
+        assertTrue(post("/mapping?name=coin", "/coin_a/01-coin-simple.x3ml", 200).contains("version 1"));
+        post("/policy?name=other", "/coin_a/00-generator-policy.xml", 404);
+        post("/mapping?name=coin", "/coin_a/04-appell.x3ml", 200);
+        assertTrue(post("/policy?name=coin", "/coin_a/00-generator-policy.xml", 200).contains("version 3"));
+        String rdf = post("/map?format=application/n-triples&uuidTestSize=1&name=coin", "/coin_a/00-coin-input.xml", 200);
+        List<String> diff = compareNTriples(xmlToNTriples("/coin_a/04-appell-rdf.xml"), rdf.split("\n"));
+        assertTrue("\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+    }
+
+    @Test
+    public void testForeignRequestsRefused() throws IOException {
+        server = X3MLServer.start(0, 1, 60000);
+        String body = "<x3ml version=\"1.0\"/>";
+        assertEquals(415, raw("POST /mapping HTTP/1.0\r\nHost: localhost\r\nContent-Type: text/plain\r\n", body));
+        assertEquals(415, raw("POST /mapping HTTP/1.0\r\nHost: localhost\r\n", body));
+        assertEquals(403, raw("POST /mapping HTTP/1.0\r\nHost: example.com\r\nContent-Type: application/xml\r\n", body));
+        assertEquals(403, raw("POST /mapping HTTP/1.0\r\nHost: localhost\r\nOrigin: http://example.com\r\nContent-Type: application/xml\r\n", body));
+        assertEquals(403, raw("GET /status HTTP/1.0\r\nHost: localhost.example.com\r\n", ""));
+        assertEquals(200, raw("GET /status HTTP/1.0\r\nHost: [::1]:" + server.getPort() + "\r\nOrigin: http://localhost:3000\r\n", ""));
+    }
+
+    @Test
+    public void testGadgetRefused() throws IOException {
+        server = X3MLServer.start(0, 1, 60000);
+        File marker = new File(System.getProperty("java.io.tmpdir"), "x3ml-gadget-" + System.nanoTime());
+        String gadget = "" +
+                "<sorted-set>\n" +
+                "  <string>x3ml</string>\n" +
+                "  <dynamic-proxy>\n" +
+                "    <interface>java.lang.Comparable</interface>\n" +
+                "    <handler class=\"java.beans.EventHandler\">\n" +
+                "      <target class=\"java.lang.ProcessBuilder\">\n" +
+                "        <command><string>touch</string><string>" + marker.getPath() + "</string></command>\n" +
+                "      </target>\n" +
+                "      <action>start</action>\n" +
+                "    </handler>\n" +
+                "  </dynamic-proxy>\n" +
+                "</sorted-set>";
+        for (String path : new String[]{"/mapping", "/policy", "/mapping?name=gadget"}) {
+            String response = rawResponse("POST " + path + " HTTP/1.0\r\nHost: localhost\r\nContent-Type: application/xml\r\n", gadget);
+            assertTrue(response, response.startsWith("HTTP/1.1 400"));
+            assertTrue("not refused by type: " + response, response.contains("java.util.SortedSet"));
+        }
+        assertTrue("gadget ran", !marker.exists());
+    }
+
+    private int raw(String head, String body) throws IOException {
+        return Integer.parseInt(rawResponse(head, body).split(" ")[1]);
+    }
+
+    private String rawResponse(String head, String body) throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            byte[] bytes = body.getBytes("UTF-8");
+            OutputStream out = socket.getOutputStream();
+            out.write((head + "Content-Length: " + bytes.length + "\r\n\r\n").getBytes("UTF-8"));
+            out.write(bytes);
+            out.flush();
+            return IOUtils.toString(socket.getInputStream(), "UTF-8");
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    private String post(String path, String resource, int expectedCode) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/xml");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        InputStream in = resource(resource);
+        IOUtils.copy(in, out);
+        in.close();
+        out.close();
+        assertEquals(path, expectedCode, connection.getResponseCode());
+        InputStream response = expectedCode == 200 ? connection.getInputStream() : connection.getErrorStream();
+        try {
+            return IOUtils.toString(response, "UTF-8");
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    private int code(String path, String resource) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/xml");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        InputStream in = resource(resource);
+        IOUtils.copy(in, out);
+        in.close();
+        out.close();
+        int code = connection.getResponseCode();
+        InputStream response = code == 200 ? connection.getInputStream() : connection.getErrorStream();
+        IOUtils.toString(response, "UTF-8");
+        response.close();
+        return code;
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        InputStream response = connection.getInputStream();
+        try {
+            return IOUtils.toString(response, "UTF-8");
+        }
+        finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.SourceProjection;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.List;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSourceProjection {
+
+    private static final String MAPPING = "" +
+            "<x3ml version=\"1.0\" source_type=\"xpath\">\n" +
+            "  <mappings>\n" +
+            "    <mapping>\n" +
+            "      <domain>\n" +
+            "        <source_node>//record</source_node>\n" +
+            "        <target_node>\n" +
+            "          <entity>\n" +
+            "            <type>crm:E22_Man-Made_Object</type>\n" +
+            "            <instance_generator name=\"UUID\"/>\n" +
+            "            <label_generator name=\"Literal\">\n" +
+            "              <arg name=\"text\">title[@lang = 'en']/text()</arg>\n" +
+            "            </label_generator>\n" +
+            "          </entity>\n" +
+            "        </target_node>\n" +
+            "      </domain>\n" +
+            "    </mapping>\n" +
+            "  </mappings>\n" +
+            "</x3ml>";
+
+    private static final String INPUT = "" +
+            "<records>\n" +
+            "  <admin><audit>a lot of text</audit></admin>\n" +
+            "  <wrapper><record><title lang=\"en\">Coin</title><note>skip</note></record></wrapper>\n" +
+            "</records>";
+
+    @Test
+    public void testNames() {
+        SourceProjection projection = projection(MAPPING);
+        assertTrue(projection.getFallback(), projection.isProjectable());
+        assertTrue(projection.getNames().containsAll(Arrays.asList("record", "title")));
+        assertFalse(projection.getNames().contains("lang"));
+    }
+
+    @Test
+    public void testPruned() throws UnsupportedEncodingException {
+        Element root = projection(MAPPING).parse(new ByteArrayInputStream(INPUT.getBytes("UTF-8")));
+        assertEquals(0, root.getElementsByTagName("admin").getLength());
+        assertEquals(0, root.getElementsByTagName("note").getLength());
+        assertEquals(1, root.getElementsByTagName("wrapper").getLength());
+        assertEquals("en", ((Element) root.getElementsByTagName("title").item(0)).getAttribute("lang"));
+        assertEquals("Coin", root.getElementsByTagName("title").item(0).getTextContent());
+    }
+
+    @Test
+    public void testFallback() {
+        assertFalse(projection(MAPPING.replace("title[@lang = 'en']/text()", "*/text()")).isProjectable());
+        assertFalse(projection(MAPPING.replace("title[@lang = 'en']/text()", "node()")).isProjectable());
+        assertFalse(projection(MAPPING.replace("title[@lang = 'en']/text()", "//text()")).isProjectable());
+        assertFalse(projection(MAPPING.replace("title[@lang = 'en']/text()", "descendant::text()")).isProjectable());
+        assertFalse(projection(MAPPING.replace("title[@lang = 'en']/text()", "$title")).isProjectable());
+        assertFalse(projection(MAPPING.replace("title[@lang = 'en']/text()", ".[. = 'x']")).isProjectable());
+        assertTrue(projection(MAPPING.replace("title[@lang = 'en']/text()", "../priref[1]/@id")).isProjectable());
+    }
+
+    @Test
+    public void testSameOutput() {
+        sameOutput("/coin_a/04-appell.x3ml", "/coin_a/00-coin-input.xml", "/coin_a/00-generator-policy.xml");
+        sameOutput("/lido07/lido07.x3ml", "/lido07/lido07.xml", "/lido07/lido07-gen-policy.xml");
+        sameOutput("/bm/BM20.x3ml", "/bm/BM20.xml", "/bm/BM20-gen-policy.xml");
+        sameOutput("/rijks/rijks.x3ml", "/rijks/rijks.xml", "/rijks/rijks-policy.xml");
+        sameOutput("/double_join/doublejoin.x3ml", "/double_join/doubleinput.xml", "/coin_a/00-generator-policy.xml");
+    }
+
+    private void sameOutput(String x3ml, String input, String policy) {
+        X3MLEngine engine = X3MLEngine.load(resource(x3ml));
+        String[] full = engine.execute(document(input), policy(policy)).toStringArray();
+        Element projected = engine.getSourceProjection().parse(resource(input));
+        String[] partial = engine.execute(projected, policy(policy)).toStringArray();
+        List<String> diff = compareNTriples(full, partial);
+        assertTrue(x3ml + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+    }
+
+    private static SourceProjection projection(String mapping) {
+        try {
+            return X3MLEngine.load(new ByteArrayInputStream(mapping.getBytes("UTF-8"))).getSourceProjection();
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
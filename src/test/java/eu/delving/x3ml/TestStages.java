@@ -0,0 +1,73 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.SourceParser;
+import eu.delving.x3ml.engine.Stages;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestStages {
+
+    @Test
+    public void testEvents() throws Exception {
+        assertTrue(Stages.available());
+        Recording recording = new Recording();
+        for (String stage : new String[]{"Parse", "Domain", "Link", "Generator", "Flush"}) {
+            recording.enable("eu.delving.x3ml." + stage);
+        }
+        recording.start();
+        X3MLEngine engine = engine("/coin_a/04-appell.x3ml");
+        X3MLEngine.Output output = engine.execute(SourceParser.parse(resource("/coin_a/00-coin-input.xml")), policy("/coin_a/00-generator-policy.xml"));
+        output.write(new PrintStream(new ByteArrayOutputStream()), "text/turtle");
+        recording.stop();
+        File file = File.createTempFile("stages", ".jfr");
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        try {
+            recording.dump(file.toPath());
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                String name = event.getEventType().getName();
+                counts.put(name, counts.containsKey(name) ? counts.get(name) + 1 : 1);
+                if (name.endsWith("Flush")) {
+                    assertEquals("TURTLE", event.getString("format"));
+                    assertEquals(output.getModel().size(), event.getLong("triples"));
+                }
+                if (name.endsWith("Domain")) {
+                    assertTrue(event.getString("mapping").startsWith("mapping "));
+                }
+            }
+        }
+        finally {
+            recording.close();
+            file.delete();
+        }
+        for (String stage : new String[]{"Parse", "Domain", "Link", "Generator", "Flush"}) {
+            assertTrue(counts.toString(), counts.containsKey("eu.delving.x3ml." + stage));
+        }
+    }
+}
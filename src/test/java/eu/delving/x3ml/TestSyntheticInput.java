@@ -0,0 +1,77 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.bench.Fixture;
+import eu.delving.x3ml.bench.SyntheticInput;
+import eu.delving.x3ml.engine.SourceParser;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSyntheticInput {
+
+    @Test
+    public void testScaleOneUnchanged() throws Exception {
+        for (Fixture fixture : Fixture.ALL) {
+            Element original = SourceParser.parse(new ByteArrayInputStream(fixture.input));
+            Element written = SourceParser.parse(new ByteArrayInputStream(write(fixture, 1)));
+            assertTrue(fixture.name, original.isEqualNode(written));
+        }
+    }
+
+    @Test
+    public void testTriplesGrow() throws Exception {
+        for (Fixture fixture : Fixture.ALL) {
+            assertTrue(fixture.name, triples(fixture, 3) > triples(fixture, 1));
+        }
+    }
+
+    @Test
+    public void testRecordAsRoot() throws Exception {
+        Fixture lido = Fixture.named("lido07");
+        assertTrue(new SyntheticInput(lido.x3ml, lido.input, null).isContainerRecord());
+        Element scaled = SourceParser.parse(new ByteArrayInputStream(write(lido, 3)));
+        assertEquals(SyntheticInput.SYNTHETIC_ROOT, scaled.getNodeName());
+        assertEquals(3, scaled.getElementsByTagNameNS("http://www.lido-schema.org", "lidoRecID").getLength());
+        Fixture coin = Fixture.named("coin");
+        assertFalse(new SyntheticInput(coin.x3ml, coin.input, null).isContainerRecord());
+    }
+
+    @Test
+    public void testJoinsWithinRepetition() throws Exception {
+        Fixture fixture = Fixture.named("double_join");
+        assertEquals(10 * triples(fixture, 1), triples(fixture, 10));
+    }
+
+    private static byte[] write(Fixture fixture, int scale) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SyntheticInput(fixture.x3ml, fixture.input, null).write(scale, out);
+        return out.toByteArray();
+    }
+
+    private static long triples(Fixture fixture, int scale) throws Exception {
+        Element source = SourceParser.parse(new ByteArrayInputStream(write(fixture, scale)));
+        ReloadableMapping.Plan plan = ReloadableMapping.load(fixture.name, fixture.x3ml, fixture.policy).current();
+        return plan.execute(source, X3MLGeneratorPolicy.createUUIDSource(-1)).getModel().size();
+    }
+}
@@ -0,0 +1,75 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestX3MLValidator {
+
+    @Test
+    public void testSchemaOnce() {
+        assertSame(X3MLValidator.schema(), X3MLValidator.schema());
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        String x3ml = "<x3ml version=\"1.0\" source_type=\"xpath\"><mappings><nonsense/></mappings></x3ml>";
+        List<String> errors = X3MLValidator.validate(new ByteArrayInputStream(x3ml.getBytes("UTF-8")));
+        assertFalse(errors.isEmpty());
+        assertTrue(errors.get(0), errors.get(0).startsWith("1:"));
+        assertEquals(errors, X3MLValidator.validate(new ByteArrayInputStream(x3ml.getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        File resources = new File(getClass().getResource("/coin_a/01-coin-simple.x3ml").toURI()).getParentFile().getParentFile();
+        List<File> files = new ArrayList<File>();
+        for (File directory : resources.listFiles()) {
+            if (directory.isDirectory()) {
+                for (File file : directory.listFiles()) {
+                    if (file.getName().endsWith(".x3ml")) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+        assertTrue(files.size() > 10);
+        Map<File, List<String>> results = X3MLValidator.validate(files, 4);
+        assertEquals(files.size(), results.size());
+        for (Map.Entry<File, List<String>> entry : results.entrySet()) {
+            InputStream inputStream = new FileInputStream(entry.getKey());
+            try {
+                assertEquals(entry.getKey().getName(), X3MLEngine.validate(inputStream), entry.getValue());
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml;
+
+import eu.delving.x3ml.engine.Metrics;
+import eu.delving.x3ml.engine.XPathInput;
+import eu.delving.x3ml.engine.XPathStats;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestXPathStats {
+
+    @Test
+    public void testSites() {
+        X3MLEngine engine = engine("/coin_a/04-appell.x3ml");
+        assertNull(engine.getXPathStatistics());
+        engine.setXPathStatistics(true);
+        for (int walk = 0; walk < 2; walk++) {
+            engine.execute(document("/coin_a/00-coin-input.xml"), policy("/coin_a/00-generator-policy.xml"));
+        }
+        Set<XPathStats.Site> sites = EnumSet.noneOf(XPathStats.Site.class);
+        long cacheHits = 0;
+        List<XPathStats.Entry> entries = engine.getXPathStatistics().getEntries();
+        for (XPathStats.Entry entry : entries) {
+            sites.add(entry.site);
+            assertTrue(entry.expression, entry.evaluations > 0);
+            assertTrue(entry.expression, entry.maxNanos <= entry.nanos);
+            cacheHits += entry.cacheHits;
+        }
+        for (int walk = 1; walk < entries.size(); walk++) {
+            assertTrue(entries.get(walk - 1).nanos >= entries.get(walk).nanos);
+        }
+        assertTrue(sites.toString(), sites.containsAll(EnumSet.of(XPathStats.Site.DOMAIN, XPathStats.Site.PATH, XPathStats.Site.ARGUMENT)));
+        assertTrue(cacheHits > 0);
+        String report = engine.getXPathStatistics().report(3);
+        assertEquals(report, 4, report.split("\n").length);
+    }
+
+    @Test
+    public void testWithoutSite() {
+        Element root = document("/coin_a/00-coin-input.xml");
+        XPathStats stats = new XPathStats();
+        XPathInput input = new XPathInput(root, null, null, stats, Metrics.NONE);
+        assertTrue(input.countNodes(root, "//*") > 0);
+        assertEquals(input.nodeList(root, "//*").size(), input.countNodes(root, "//*"));
+        List<XPathStats.Entry> entries = stats.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(XPathStats.Site.OTHER, entries.get(0).site);
+        assertEquals(3, entries.get(0).evaluations);
+    }
+
+    @Test
+    public void testJoinKeys() {
+        X3MLEngine engine = engine("/double_join/doublejoin.x3ml");
+        engine.setXPathStatistics(true);
+        engine.execute(document("/double_join/doubleinput.xml"), X3MLGeneratorPolicy.load(resource("/coin_a/00-generator-policy.xml"), X3MLGeneratorPolicy.createUUIDSource(2)));
+        boolean joined = false;
+        List<String> keyed = new ArrayList<String>();
+        for (XPathStats.Entry entry : engine.getXPathStatistics().getEntries()) {
+            if (entry.site == XPathStats.Site.JOIN_KEY && entry.expression.contains(" == ")) {
+                joined = true;
+                assertTrue(entry.expression, entry.cacheHits > 0);
+                keyed.add(entry.expression.substring(0, entry.expression.indexOf(" == ")));
+            }
+        }
+        assertTrue(joined);
+        for (XPathStats.Entry entry : engine.getXPathStatistics().getEntries()) {
+            if (entry.site == XPathStats.Site.JOIN_KEY) { // building the index is already in the time of the join
+                assertFalse(entry.expression, keyed.contains(entry.expression));
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.bench;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A bundled example to measure: its mapping, its input and its generator
+ * policy, as shared by the benchmarks, the scale harness and the
+ * regression suite.
+ */
+
+public class Fixture {
+    public static final Fixture[] ALL = {
+            new Fixture("bm", "/bm/BM20.x3ml", "/bm/BM20.xml", "/bm/BM20-gen-policy.xml"),
+            new Fixture("lido07", "/lido07/lido07.x3ml", "/lido07/lido07.xml", "/lido07/lido07-gen-policy.xml"),
+            new Fixture("coin", "/coin_a/04-appell.x3ml", "/coin_a/00-coin-input.xml", "/coin_a/00-generator-policy.xml"),
+            new Fixture("double_join", "/double_join/doublejoin.x3ml", "/double_join/doubleinput.xml", "/coin_a/00-generator-policy.xml"),
+    };
+    public final String name;
+    public final byte[] x3ml;
+    public final byte[] input;
+    public final byte[] policy;
+
+    public Fixture(String name, String x3ml, String input, String policy) {
+        this.name = name;
+        this.x3ml = bytes(x3ml);
+        this.input = bytes(input);
+        this.policy = bytes(policy);
+    }
+
+    public static Fixture named(String name) {
+        for (Fixture fixture : ALL) {
+            if (fixture.name.equals(name)) {
+                return fixture;
+            }
+        }
+        throw new IllegalArgumentException("No fixture " + name);
+    }
+
+    public static byte[] bytes(String resource) {
+        InputStream in = Fixture.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalArgumentException("No resource " + resource);
+        }
+        try {
+            return IOUtils.toByteArray(in);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
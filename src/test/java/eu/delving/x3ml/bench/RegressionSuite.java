@@ -0,0 +1,268 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.bench;
+
+import eu.delving.x3ml.ReloadableMapping;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Maps every fixture at a scaled size and holds its throughput and peak heap
+ * to the budgets of a stored baseline: triples per second may not fall, and
+ * peak heap may not rise, by more than the tolerance. It writes a JSON
+ * report and fails when any fixture is over budget, so a regression stops
+ * the build.
+ * <p/>
+ * Baselines belong to the machine they were recorded on, so none is shipped.
+ * A fixture without a baseline has its measurement recorded as the baseline
+ * and passes, which means the first run on a machine records them all.
+ * <p/>
+ * A fixture whose triples do not grow with its scale fails without being
+ * judged or recorded, since its synthetic input is broken and its throughput
+ * would measure nothing.
+ * <p/>
+ * Arguments: -baseline file (default ~/.x3ml/performance-baseline.properties),
+ * -report file (default target/performance-report.json), -tolerance fraction
+ * (default 0.25), -runs count (default 5, the best of which counts), -fixtures
+ * comma-separated, and -record true to write the measurements as the new
+ * baseline instead of checking them. The baseline also holds the scale of
+ * each fixture.
+ */
+
+public class RegressionSuite {
+    private static final int WARMUPS = 3;
+    private static final Map<String, Integer> DEFAULT_SCALES = new HashMap<String, Integer>();
+
+    static {
+        DEFAULT_SCALES.put("bm", 2);
+        DEFAULT_SCALES.put("lido07", 100);
+        DEFAULT_SCALES.put("coin", 100);
+        DEFAULT_SCALES.put("double_join", 10); // the join is quadratic, 100 takes minutes
+    }
+
+    public static class Result {
+        public final String fixture;
+        public final int scale;
+        public final long triples;
+        public long triplesAtOne;
+        public final double triplesPerSecond;
+        public final long peakHeapBytes;
+        public double baselineTriplesPerSecond;
+        public long baselinePeakHeapBytes;
+        public String status = "ok";
+
+        Result(String fixture, int scale, long triples, double triplesPerSecond, long peakHeapBytes) {
+            this.fixture = fixture;
+            this.scale = scale;
+            this.triples = triples;
+            this.triplesPerSecond = triplesPerSecond;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        public boolean passed() {
+            return "ok".equals(status) || "recorded".equals(status);
+        }
+
+        String toJSON() {
+            return String.format(Locale.ROOT,
+                    "{\"fixture\": \"%s\", \"scale\": %d, \"triples\": %d, \"triplesAtOne\": %d, \"triplesPerSecond\": %.1f, " +
+                            "\"baselineTriplesPerSecond\": %.1f, \"peakHeapBytes\": %d, \"baselinePeakHeapBytes\": %d, \"status\": \"%s\"}",
+                    fixture, scale, triples, triplesAtOne, triplesPerSecond, baselineTriplesPerSecond, peakHeapBytes, baselinePeakHeapBytes, status
+            );
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = ScaleHarness.options(args);
+        File baselineFile = new File(option(options, "-baseline", new File(System.getProperty("user.home"), ".x3ml/performance-baseline.properties").getPath()));
+        File reportFile = new File(option(options, "-report", "target/performance-report.json"));
+        double tolerance = Double.parseDouble(option(options, "-tolerance", "0.25"));
+        int runs = Integer.parseInt(option(options, "-runs", "5"));
+        boolean record = Boolean.parseBoolean(option(options, "-record", "false"));
+        String fixtures = options.get("-fixtures");
+        Properties baseline = load(baselineFile);
+        List<Result> results = new ArrayList<Result>();
+        List<Result> unrecorded = new ArrayList<Result>();
+        for (Fixture fixture : Fixture.ALL) {
+            if (fixtures != null && !("," + fixtures + ",").contains("," + fixture.name + ",")) {
+                continue;
+            }
+            Integer defaultScale = DEFAULT_SCALES.get(fixture.name);
+            int scale = Integer.parseInt(baseline.getProperty(fixture.name + ".scale", String.valueOf(defaultScale == null ? 1 : defaultScale)));
+            Result result = measure(fixture, scale, runs);
+            if (scale > 1 && result.triples <= result.triplesAtOne) {
+                result.status = "not scaling";
+            }
+            else if (!record && !judge(result, baseline, tolerance)) {
+                unrecorded.add(result);
+            }
+            System.out.println(String.format(Locale.ROOT, "%-12s x%-5d %10.1f triples/s %8d MB  %s",
+                    result.fixture, result.scale, result.triplesPerSecond, result.peakHeapBytes >> 20, result.status));
+            results.add(result);
+        }
+        if (record) {
+            for (Result result : results) {
+                if ("not scaling".equals(result.status)) {
+                    throw new IllegalStateException("Not recording " + result.fixture + ", its triples do not grow with scale");
+                }
+            }
+            save(baselineFile, results);
+            System.out.println("Recorded baseline " + baselineFile);
+            return;
+        }
+        if (!unrecorded.isEmpty()) {
+            save(baselineFile, unrecorded);
+            System.out.println("Recorded the missing baselines in " + baselineFile);
+        }
+        report(reportFile, results, tolerance);
+        List<String> failed = new ArrayList<String>();
+        for (Result result : results) {
+            if (!result.passed()) {
+                failed.add(result.fixture + " " + result.status);
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Performance check failed with tolerance " + tolerance + ": " + failed + ", see " + reportFile);
+        }
+    }
+
+    static Result measure(Fixture fixture, int scale, int runs) throws Exception {
+        SyntheticInput synthetic = new SyntheticInput(fixture.x3ml, fixture.input, null);
+        ReloadableMapping.Plan plan = ReloadableMapping.load(fixture.name, fixture.x3ml, fixture.policy).current();
+        File file = File.createTempFile(fixture.name + "-x" + scale, ".xml");
+        try {
+            synthetic.write(1, file);
+            long triplesAtOne = ScaleHarness.measure(plan, 1, file).triples;
+            synthetic.write(scale, file);
+            for (int walk = 0; walk < WARMUPS; walk++) {
+                ScaleHarness.measure(plan, scale, file);
+            }
+            double best = 0;
+            long triples = 0, heap = Long.MAX_VALUE;
+            for (int walk = 0; walk < runs; walk++) {
+                ScaleHarness.Measurement measurement = ScaleHarness.measure(plan, scale, file);
+                long millis = Math.max(1, measurement.parseMillis + measurement.executeMillis);
+                best = Math.max(best, measurement.triples * 1000.0 / millis);
+                triples = measurement.triples;
+                heap = Math.min(heap, measurement.peakHeapBytes); // the least garbage counted
+            }
+            Result result = new Result(fixture.name, scale, triples, best, heap);
+            result.triplesAtOne = triplesAtOne;
+            return result;
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return false if there is no baseline, in which case the result should become it
+     */
+    static boolean judge(Result result, Properties baseline, double tolerance) {
+        String throughput = baseline.getProperty(result.fixture + ".triplesPerSecond");
+        String heap = baseline.getProperty(result.fixture + ".peakHeapBytes");
+        if (throughput == null || heap == null) {
+            result.status = "recorded";
+            return false;
+        }
+        result.baselineTriplesPerSecond = Double.parseDouble(throughput);
+        result.baselinePeakHeapBytes = Long.parseLong(heap);
+        if (result.triplesPerSecond < result.baselineTriplesPerSecond * (1 - tolerance)) {
+            result.status = "slower";
+        }
+        else if (result.peakHeapBytes > result.baselinePeakHeapBytes * (1 + tolerance)) {
+            result.status = "heavier";
+        }
+        return true;
+    }
+
+    private static void report(File file, List<Result> results, double tolerance) throws IOException {
+        boolean passed = true;
+        StringBuilder fixtures = new StringBuilder();
+        for (Result result : results) {
+            passed &= result.passed();
+            fixtures.append(fixtures.length() == 0 ? "\n    " : ",\n    ").append(result.toJSON());
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        try {
+            out.print(String.format(Locale.ROOT,
+                    "{\n  \"java\": \"%s\",\n  \"tolerance\": %s,\n  \"passed\": %s,\n  \"fixtures\": [%s\n  ]\n}\n",
+                    System.getProperty("java.version"), tolerance, passed, fixtures
+            ));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private static void save(File file, List<Result> results) throws IOException {
+        Properties properties = load(file);
+        for (Result result : results) {
+            properties.setProperty(result.fixture + ".scale", String.valueOf(result.scale));
+            properties.setProperty(result.fixture + ".triplesPerSecond", String.format(Locale.ROOT, "%.1f", result.triplesPerSecond));
+            properties.setProperty(result.fixture + ".peakHeapBytes", String.valueOf(result.peakHeapBytes));
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        PrintStream out = new PrintStream(new FileOutputStream(file), false, "ISO-8859-1");
+        try { // sorted, unlike Properties.store, so a new baseline diffs cleanly
+            out.println("# RegressionSuite baseline, only valid on the machine which recorded it");
+            out.println("# java " + System.getProperty("java.version") + " on " + System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+            for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(properties).entrySet()) {
+                out.println(entry.getKey() + "=" + entry.getValue());
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.containsKey(name) ? options.get(name) : defaultValue;
+    }
+}
@@ -0,0 +1,146 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.bench;
+
+import eu.delving.x3ml.ReloadableMapping;
+import eu.delving.x3ml.X3MLEngine;
+import eu.delving.x3ml.X3MLGeneratorPolicy;
+import eu.delving.x3ml.engine.SourceParser;
+import org.w3c.dom.Element;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps synthetic inputs of growing size made from one of the examples and
+ * records the time to parse and to execute, the triples produced and the peak
+ * heap, so it shows where the engine stops growing linearly with its input.
+ * The last column is the time per repetition of the example, which stays
+ * flat for as long as the engine scales.
+ * <p/>
+ * Arguments: -fixture name (default bm), -scales comma-separated (default
+ * 1,100,10000), -container element-name, -dir for the generated files.
+ * The example itself is mapped once beforehand, unreported, to warm up. It
+ * stops at the first scale that runs out of memory.
+ */
+
+public class ScaleHarness {
+
+    public static class Measurement {
+        public final int scale;
+        public final long inputBytes;
+        public final long parseMillis;
+        public final long executeMillis;
+        public final long triples;
+        public final long peakHeapBytes;
+
+        Measurement(int scale, long inputBytes, long parseMillis, long executeMillis, long triples, long peakHeapBytes) {
+            this.scale = scale;
+            this.inputBytes = inputBytes;
+            this.parseMillis = parseMillis;
+            this.executeMillis = executeMillis;
+            this.triples = triples;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        public String toString() {
+            return String.format("%8d %,14d %10d %12d %12d %10d MB %12.2f",
+                    scale, inputBytes, parseMillis, executeMillis, triples, peakHeapBytes >> 20,
+                    (parseMillis + executeMillis) / (double) scale);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        Fixture fixture = Fixture.named(options.containsKey("-fixture") ? options.get("-fixture") : "bm");
+        String scales = options.containsKey("-scales") ? options.get("-scales") : "1,100,10000";
+        File dir = new File(options.containsKey("-dir") ? options.get("-dir") : System.getProperty("java.io.tmpdir"));
+        SyntheticInput synthetic = new SyntheticInput(fixture.x3ml, fixture.input, options.get("-container"));
+        ReloadableMapping.Plan plan = ReloadableMapping.load(fixture.name, fixture.x3ml, fixture.policy).current();
+        System.out.println(fixture.name + ": join keys " + synthetic.getKeyNames() + ", identifying " + synthetic.getIdentifyingNames());
+        File warmup = new File(dir, fixture.name + "-warmup.xml");
+        synthetic.write(1, warmup);
+        measure(plan, 1, warmup); // so the first scale is not measuring the JIT
+        warmup.delete();
+        System.out.println("   scale     input bytes   parse ms   execute ms      triples  peak heap  ms per 1x");
+        for (String scale : scales.split(",")) {
+            File file = new File(dir, fixture.name + "-x" + scale.trim() + ".xml");
+            synthetic.write(Integer.parseInt(scale.trim()), file);
+            try {
+                System.out.println(measure(plan, Integer.parseInt(scale.trim()), file));
+            }
+            catch (OutOfMemoryError e) {
+                System.out.println(String.format("%8s out of memory with %d MB", scale.trim(), Runtime.getRuntime().maxMemory() >> 20));
+                break;
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    public static Measurement measure(ReloadableMapping.Plan plan, int scale, File file) throws Exception {
+        System.gc();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        Element source;
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+        try {
+            source = SourceParser.parse(in);
+        }
+        finally {
+            in.close();
+        }
+        long parsed = System.nanoTime();
+        X3MLEngine.Output output = plan.execute(source, X3MLGeneratorPolicy.createUUIDSource(-1));
+        long executed = System.nanoTime();
+        return new Measurement(scale, file.length(), (parsed - start) / 1000000, (executed - parsed) / 1000000,
+                output.getModel().size(), peakHeap());
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int walk = 0; walk + 1 < args.length; walk += 2) {
+            options.put(args[walk], args[walk + 1]);
+        }
+        return options;
+    }
+}
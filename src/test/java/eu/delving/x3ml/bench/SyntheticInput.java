@@ -0,0 +1,284 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package eu.delving.x3ml.bench;
+
+import eu.delving.x3ml.engine.SourceParser;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Makes a larger input out of an example by repeating the records of its
+ * container element, which is the root unless another is named. When the
+ * container is itself a record, because a domain of the mapping selects it,
+ * the container is repeated instead, within a synthetic parent if it is the
+ * root.
+ * <p/>
+ * Every repetition keeps the structure and the values of the original, except
+ * for the values which identify something: those of the elements on either
+ * side of a join in the mapping, and those of elements and attributes with
+ * a name whose every value is different. These get the number of the repetition appended, so joins only
+ * meet within a repetition, as often as in the original, and values which
+ * repeat in the original keep their few distinct values. An example of one
+ * record cannot tell, so there every value which does not repeat within the
+ * record counts as identifying. Repetition zero is the original itself, so
+ * scale 1 is the example unchanged.
+ */
+
+public class SyntheticInput {
+    public static final String SYNTHETIC_ROOT = "synthetic-records";
+    private static final Pattern JOIN = Pattern.compile("<relation2?>([^<]*)==([^<]*)</relation2?>");
+    private static final Pattern DOMAIN = Pattern.compile("<domain>\\s*<source_node>([^<]*)</source_node>");
+    private final Element root;
+    private final Element container;
+    private final boolean containerIsRecord;
+    private final Set<String> keyNames = new HashSet<String>();
+    private final Set<String> identifyingNames = new HashSet<String>();
+
+    /**
+     * @param x3ml the mapping, for the names of the join keys
+     * @param input the example input
+     * @param containerName local name of the element whose children are records, or null for the root
+     */
+    public SyntheticInput(byte[] x3ml, byte[] input, String containerName) {
+        this.root = SourceParser.parse(new ByteArrayInputStream(input));
+        this.container = containerName == null ? root : find(root, containerName);
+        if (container == null) {
+            throw new IllegalArgumentException("No element " + containerName);
+        }
+        Matcher matcher = JOIN.matcher(new String(x3ml));
+        while (matcher.find()) {
+            keyNames.add(lastStep(matcher.group(1)));
+            keyNames.add(lastStep(matcher.group(2)));
+        }
+        Set<String> recordNames = new HashSet<String>();
+        matcher = DOMAIN.matcher(new String(x3ml));
+        while (matcher.find()) {
+            recordNames.add(lastStep(matcher.group(1)));
+        }
+        this.containerIsRecord = recordNames.contains(localName(container));
+        Map<String, List<String>> values = new HashMap<String, List<String>>();
+        if (containerIsRecord) {
+            collect(container, values);
+        }
+        else {
+            for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child instanceof Element) {
+                    collect((Element) child, values);
+                }
+            }
+        }
+        int minimum = containerIsRecord ? 1 : 2;
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            List<String> list = entry.getValue();
+            if (list.size() >= minimum && new HashSet<String>(list).size() == list.size()) {
+                identifyingNames.add(entry.getKey());
+            }
+        }
+    }
+
+    public Set<String> getKeyNames() {
+        return keyNames;
+    }
+
+    public Set<String> getIdentifyingNames() {
+        return identifyingNames;
+    }
+
+    public boolean isContainerRecord() {
+        return containerIsRecord;
+    }
+
+    /**
+     * @param scale how many times the records appear
+     * @param out where the XML goes
+     */
+    public void write(int scale, OutputStream out) throws XMLStreamException {
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        if (root == container && containerIsRecord && scale > 1) {
+            writer.writeStartElement(SYNTHETIC_ROOT);
+            writeRecords(writer, root, scale, 0);
+            writer.writeEndElement();
+        }
+        else {
+            write(writer, root, scale, 0);
+        }
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    public void write(int scale, File file) throws IOException, XMLStreamException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        try {
+            write(scale, out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void write(XMLStreamWriter writer, Element element, int scale, int copy) throws XMLStreamException {
+        String name = localName(element);
+        if (element.getPrefix() == null) {
+            writer.writeStartElement(element.getNodeName());
+        }
+        else {
+            writer.writeStartElement(element.getPrefix(), name, element.getNamespaceURI());
+        }
+        NamedNodeMap attributes = element.getAttributes();
+        for (int walk = 0; walk < attributes.getLength(); walk++) {
+            Attr attr = (Attr) attributes.item(walk);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                if (attr.getPrefix() == null) {
+                    writer.writeDefaultNamespace(attr.getValue());
+                }
+                else {
+                    writer.writeNamespace(localName(attr), attr.getValue());
+                }
+                continue;
+            }
+            String value = value("@" + localName(attr), attr.getValue(), copy);
+            if (attr.getPrefix() == null) {
+                writer.writeAttribute(attr.getNodeName(), value);
+            }
+            else {
+                writer.writeAttribute(attr.getPrefix(), attr.getNamespaceURI(), localName(attr), value);
+            }
+        }
+        boolean repeating = element == container && !containerIsRecord;
+        for (int walk = 0; walk < (repeating ? scale : 1); walk++) {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                switch (child.getNodeType()) {
+                    case Node.ELEMENT_NODE:
+                        writeRecords(writer, (Element) child, scale, repeating ? walk : copy);
+                        break;
+                    case Node.TEXT_NODE:
+                    case Node.CDATA_SECTION_NODE:
+                        writer.writeCharacters(value(name, child.getNodeValue(), copy));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeRecords(XMLStreamWriter writer, Element element, int scale, int copy) throws XMLStreamException {
+        if (element == container && containerIsRecord) {
+            for (int walk = 0; walk < scale; walk++) {
+                write(writer, element, scale, walk);
+            }
+        }
+        else {
+            write(writer, element, scale, copy);
+        }
+    }
+
+    private String value(String name, String value, int copy) {
+        if (copy == 0 || value.trim().isEmpty()) {
+            return value;
+        }
+        if (keyNames.contains(name) || identifyingNames.contains(name)) {
+            return value.trim() + "-" + copy;
+        }
+        return value;
+    }
+
+    private void collect(Element element, Map<String, List<String>> values) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int walk = 0; walk < attributes.getLength(); walk++) {
+            Attr attr = (Attr) attributes.item(walk);
+            add(values, "@" + localName(attr), attr.getValue());
+        }
+        boolean leaf = true;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                leaf = false;
+                collect((Element) child, values);
+            }
+        }
+        if (leaf && !element.getTextContent().trim().isEmpty()) {
+            add(values, localName(element), element.getTextContent());
+        }
+    }
+
+    private static void add(Map<String, List<String>> values, String name, String value) {
+        List<String> list = values.get(name);
+        if (list == null) {
+            values.put(name, list = new ArrayList<String>());
+        }
+        list.add(value.trim());
+    }
+
+    private static Element find(Element element, String name) {
+        if (name.equals(localName(element))) {
+            return element;
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                Element found = find((Element) child, name);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String localName(Node node) {
+        return node.getLocalName() == null ? node.getNodeName() : node.getLocalName();
+    }
+
+    private static String lastStep(String path) {
+        String step = path.trim();
+        step = step.substring(step.lastIndexOf('/') + 1);
+        step = step.substring(step.indexOf(':') + 1);
+        return step.startsWith("@") ? step.substring(1) : step;
+    }
+
+    /**
+     * Arguments: -fixture name (one of those in Fixture), -scale count, -out file,
+     * and optionally -container element-name.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = ScaleHarness.options(args);
+        Fixture fixture = Fixture.named(options.get("-fixture"));
+        SyntheticInput input = new SyntheticInput(fixture.x3ml, fixture.input, options.get("-container"));
+        input.write(Integer.parseInt(options.get("-scale")), new File(options.get("-out")));
+    }
+}
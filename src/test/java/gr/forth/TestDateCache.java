@@ -0,0 +1,51 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package gr.forth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestDateCache {
+
+    @Test
+    public void testBoundsKeptApart() {
+        DateCache cache = new DateCache(100);
+        assertEquals("1850-01-01T00:00:00", cache.get("1850", "Lower"));
+        assertEquals("1850-12-31T23:59:59", cache.get("1850", "Upper"));
+        assertEquals("1850-01-01T00:00:00", cache.get("1850", "Lower"));
+        assertEquals(DateCache.UNKNOWN_FORMAT, cache.get("19th century", "Lower"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        DateCache cache = new DateCache(10);
+        for (int year = 1800; year < 1900; year++) {
+            assertEquals(year + "-01-01T00:00:00", cache.get(String.valueOf(year), "Lower"));
+            assertTrue(cache.size() <= 10);
+        }
+    }
+
+    @Test
+    public void testNotHandled() {
+        DateCache cache = new DateCache(10);
+        assertEquals("", cache.get("1850", null));
+        assertEquals("", cache.get(null, "Lower"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,100 @@
+//===========================================================================
+//    Copyright 2014 Delving B.V.
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//===========================================================================
+package gr.forth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Date strings as they appear in the BM and Coin fixtures, plus some corners.
+ */
+
+public class TestUtilsTime {
+
+    private static final String[][] EXPECTED = {
+            {"19 Nov 2007", "2007-11-19T00:00:00", "2007-11-19T23:59:59"},
+            {"01 Jan 1997", "1997-01-01T00:00:00", "1997-01-01T23:59:59"},
+            {"31 Dec 1997", "1997-12-31T00:00:00", "1997-12-31T23:59:59"},
+            {"1804", "1804-01-01T00:00:00", "1804-12-31T23:59:59"},
+            {"-116", "-0116-01-01T00:00:00", "-0116-12-31T23:59:59"},
+            {"-115", "-0115-01-01T00:00:00", "-0115-12-31T23:59:59"},
+            {"0", "0000-01-01T00:00:00", "0000-12-31T23:59:59"},
+            {"1850-10", "1850-10-01T00:00:00", "1850-10-31T23:59:59"},
+            {"1900/02", "1900-02-01T00:00:00", "1900-02-28T23:59:59"},
+            {"1500/02", "1500-02-01T00:00:00", "1500-02-29T23:59:59"},
+            {"29/02/1900", "1900-03-01T00:00:00", "1900-03-01T23:59:59"},
+            {"31 April 1850", "1850-05-01T00:00:00", "1850-05-01T23:59:59"},
+            {"10/10/1582", "1582-10-20T00:00:00", "1582-10-20T23:59:59"},
+            {"1850.06.15 12:30", "1850-06-15T12:30:00", "1850-06-15T12:30:59"},
+            {"March 1850", "1850-03-01T00:00:00", "1850-03-31T23:59:59"},
+    };
+
+    @Test
+    public void testFixtureDates() {
+        for (String[] expected : EXPECTED) {
+            assertEquals(expected[0], expected[1], UtilsTime.interpret(expected[0], "Lower"));
+            assertEquals(expected[0], expected[2], UtilsTime.interpret(expected[0], "Upper"));
+            assertEquals(expected[0], expected[1], UtilsTime.convertStringoXSDString(UtilsTime.validate(expected[0], "Lower")));
+            assertEquals(expected[0], expected[2], UtilsTime.convertStringoXSDString(UtilsTime.validate(expected[0], "Upper")));
+        }
+    }
+
+    @Test
+    public void testUnknown() {
+        for (String unknown : new String[]{"", "1804-1853", "1900-1910", "20thC", "625BC-575BC", "31/04/1850", "30/02/1600"}) {
+            assertNull(unknown, UtilsTime.interpret(unknown, "Lower"));
+            assertNull(unknown, UtilsTime.validate(unknown, "Upper"));
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int task = 0; task < 8; task++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int round = 0; round < 500; round++) {
+                            for (String[] expected : EXPECTED) {
+                                if (!expected[1].equals(UtilsTime.interpret(expected[0], "Lower"))) {
+                                    return false;
+                                }
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertEquals(Boolean.TRUE, future.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}